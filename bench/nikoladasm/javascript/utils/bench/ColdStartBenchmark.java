@@ -0,0 +1,87 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nikoladasm.javascript.utils.JSUtils;
+import nikoladasm.javascript.utils.ScriptLibrary;
+import nikoladasm.javascript.utils.ScriptRuntime;
+
+/*
+ * Cold path: every invocation drops the shared compiled libraries and starts
+ * from a fresh JSUtils, so the first call pays for loading and compiling
+ * the tool scripts. Each fork is a new JVM, so the first iteration also
+ * includes the script runtime's own startup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 3)
+@Fork(value = 3, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ColdStartBenchmark {
+
+	@Param({ScriptRuntime.NASHORN_ENGINE_NAME})
+	private String runtime;
+
+	private JSUtils jsUtils;
+	private String jsxSource;
+	private String legacySource;
+
+	@Setup(Level.Trial)
+	public void loadCorpus() throws IOException {
+		jsxSource = Corpus.load(Corpus.JSX_COMPONENT);
+		legacySource = Corpus.load(Corpus.LEGACY_SCRIPT);
+	}
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		ScriptLibrary.clear();
+		jsUtils = new JSUtils().scriptRuntime(ScriptRuntime.runtime(runtime));
+	}
+
+	@Benchmark
+	public String transformJSX() {
+		return jsUtils.transformJSXAndES2015toES5(jsxSource);
+	}
+
+	@Benchmark
+	public String minifyLegacy() {
+		return jsUtils.optimizeByUglifyJS2Script(legacySource, null);
+	}
+
+	@Benchmark
+	public String lintLegacy() {
+		return jsUtils.staticAnalyzeByJSHintScript(legacySource, null, null);
+	}
+}
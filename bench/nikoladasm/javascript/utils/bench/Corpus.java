@@ -0,0 +1,47 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+final class Corpus {
+
+	static final String JSX_COMPONENT = "corpus/TodoApp.jsx";
+	static final String ES2015_MODULE = "corpus/todoUtils.js";
+	static final String LEGACY_SCRIPT = "corpus/legacy.js";
+
+	private Corpus() {}
+
+	static String load(String resource) throws IOException {
+		InputStream is = Corpus.class.getClassLoader().getResourceAsStream(resource);
+		if (is == null) throw new IOException("Can't find corpus resource "+resource);
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(is, UTF_8))) {
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[8192];
+			int count;
+			while ((count = br.read(buffer)) != -1)
+				sb.append(buffer, 0, count);
+			return sb.toString();
+		}
+	}
+}
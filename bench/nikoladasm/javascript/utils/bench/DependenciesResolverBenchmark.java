@@ -0,0 +1,97 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nikoladasm.javascript.utils.JSUtils;
+import nikoladasm.javascript.utils.dependencies.BaseJSDependenciesResolver;
+import nikoladasm.javascript.utils.dependencies.BaseJSDependenciesResolver.ExtractionMode;
+import nikoladasm.javascript.utils.dependencies.CJSDependenciesResolver;
+import nikoladasm.javascript.utils.dependencies.ES2015ModuleImportResolver;
+import nikoladasm.javascript.utils.dependencies.SourceFileReader;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class DependenciesResolverBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	private int moduleCount;
+
+	@Param({"FULL_PARSE", "FAST_SCAN"})
+	private ExtractionMode extractionMode;
+
+	@Param({"1", "4"})
+	private int parallelism;
+
+	private SyntheticModuleGraph es2015Graph;
+	private SyntheticModuleGraph cjsGraph;
+	private BaseJSDependenciesResolver es2015Resolver;
+	private BaseJSDependenciesResolver cjsResolver;
+
+	@Setup
+	public void setup() throws IOException {
+		es2015Graph = SyntheticModuleGraph.generate(moduleCount, SyntheticModuleGraph.Style.ES2015);
+		cjsGraph = SyntheticModuleGraph.generate(moduleCount, SyntheticModuleGraph.Style.CJS);
+		SourceFileReader sfr = path -> JSUtils.readFile(path, UTF_8);
+		es2015Resolver = new ES2015ModuleImportResolver(sfr)
+			.extractionMode(extractionMode)
+			.parallelism(parallelism);
+		cjsResolver = new CJSDependenciesResolver(sfr)
+			.extractionMode(extractionMode)
+			.parallelism(parallelism);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		es2015Graph.delete();
+		cjsGraph.delete();
+	}
+
+	@Benchmark
+	public Map<Path,Map<String,Path>> resolveES2015() throws Exception {
+		return es2015Resolver.resolve(es2015Graph.root());
+	}
+
+	@Benchmark
+	public Map<Path,Map<String,Path>> resolveCJS() throws Exception {
+		return cjsResolver.resolve(cjsGraph.root());
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nikoladasm.javascript.utils.JSUtils;
+import nikoladasm.javascript.utils.ScriptRuntime;
+
+/*
+ * Warm path: the engine pools are started in setup, so these measure steady
+ * state transform/minify/lint cost. Result caches are left disabled.
+ * Compare runtimes with -p runtime=nashorn,graal.js (GraalJS jars in lib/graal).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class JSUtilsBenchmark {
+
+	@Param({ScriptRuntime.NASHORN_ENGINE_NAME})
+	private String runtime;
+
+	private JSUtils jsUtils;
+	private String jsxSource;
+	private String es2015Source;
+	private String legacySource;
+	private String transformedSource;
+
+	@Setup
+	public void setup() throws IOException {
+		jsxSource = Corpus.load(Corpus.JSX_COMPONENT);
+		es2015Source = Corpus.load(Corpus.ES2015_MODULE);
+		legacySource = Corpus.load(Corpus.LEGACY_SCRIPT);
+		jsUtils = new JSUtils().scriptRuntime(ScriptRuntime.runtime(runtime)).warmUp();
+		transformedSource = jsUtils.transformJSXAndES2015toES5(jsxSource);
+	}
+
+	@Benchmark
+	public String transformJSX() {
+		return jsUtils.transformJSXAndES2015toES5(jsxSource);
+	}
+
+	@Benchmark
+	public String transformES2015() {
+		return jsUtils.transformJSXAndES2015toES5(es2015Source);
+	}
+
+	@Benchmark
+	public String minifyLegacy() {
+		return jsUtils.optimizeByUglifyJS2Script(legacySource, null);
+	}
+
+	@Benchmark
+	public String minifyTransformed() {
+		return jsUtils.optimizeByUglifyJS2Script(transformedSource, null);
+	}
+
+	@Benchmark
+	public String lintLegacy() {
+		return jsUtils.staticAnalyzeByJSHintScript(legacySource, null, null);
+	}
+
+	@Benchmark
+	public String lintTransformed() {
+		return jsUtils.staticAnalyzeByJSHintScript(transformedSource, null, null);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils.bench;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Generates a reproducible module graph: module i imports its children in a
+ * fan-out tree plus one back edge to an earlier module, so every module is
+ * reachable from m0 and the graph has shared dependencies and cycles.
+ * Modules are spread over directories of 100 files each.
+ */
+final class SyntheticModuleGraph {
+
+	enum Style {
+		ES2015, CJS
+	}
+
+	private static final int FAN_OUT = 3;
+	private static final int MODULES_PER_DIRECTORY = 100;
+
+	private final Path directory;
+	private final Path root;
+
+	private SyntheticModuleGraph(Path directory, Path root) {
+		this.directory = directory;
+		this.root = root;
+	}
+
+	static SyntheticModuleGraph generate(int moduleCount, Style style) throws IOException {
+		Path directory = Files.createTempDirectory("jsutils-bench-");
+		Random random = new Random(moduleCount);
+		for (int i = 0; i < moduleCount; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int child = i*FAN_OUT+1; child <= i*FAN_OUT+FAN_OUT && child < moduleCount; child++)
+				dependency(sb, style, i, child);
+			if (i > 0) dependency(sb, style, i, random.nextInt(i));
+			body(sb, style, i);
+			Path path = modulePath(directory, i);
+			Files.createDirectories(path.getParent());
+			Files.write(path, sb.toString().getBytes(UTF_8));
+		}
+		return new SyntheticModuleGraph(directory, modulePath(directory, 0));
+	}
+
+	private static Path modulePath(Path directory, int module) {
+		return directory.resolve("d"+(module/MODULES_PER_DIRECTORY)).resolve("m"+module+".js");
+	}
+
+	private static String specifier(int from, int to) {
+		int fromDirectory = from/MODULES_PER_DIRECTORY;
+		int toDirectory = to/MODULES_PER_DIRECTORY;
+		return (fromDirectory == toDirectory) ?
+			"./m"+to : "../d"+toDirectory+"/m"+to;
+	}
+
+	private static void dependency(StringBuilder sb, Style style, int from, int to) {
+		if (style == Style.ES2015)
+			sb.append("import { value as value").append(to).append(" } from '")
+				.append(specifier(from, to)).append("';\n");
+		else
+			sb.append("var value").append(to).append(" = require('")
+				.append(specifier(from, to)).append("').value;\n");
+	}
+
+	private static void body(StringBuilder sb, Style style, int module) {
+		sb.append("\nfunction compute").append(module).append("(items, factor) {\n")
+			.append("\tvar result = [];\n")
+			.append("\tfor (var i = 0; i < items.length; i++) {\n")
+			.append("\t\tif (items[i] / factor > 1) result.push({ index: i, value: items[i] * factor });\n")
+			.append("\t}\n")
+			.append("\treturn result.filter(function (entry) { return /^[0-9]+$/.test(String(entry.index)); });\n")
+			.append("}\n\n");
+		if (style == Style.ES2015)
+			sb.append("export const value = compute").append(module).append("([1, 2, 3], ").append(module).append(");\n");
+		else
+			sb.append("module.exports.value = compute").append(module).append("([1, 2, 3], ").append(module).append(");\n");
+	}
+
+	Path root() {
+		return root;
+	}
+
+	void delete() throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,88 @@
+import React from 'react';
+import TodoList from './TodoList';
+import { filterTodos, countRemaining } from './todoUtils';
+
+const FILTERS = ['all', 'active', 'completed'];
+
+class TodoApp extends React.Component {
+
+	constructor(props) {
+		super(props);
+		this.state = {
+			todos: props.initialTodos || [],
+			filter: 'all',
+			text: ''
+		};
+		this.handleChange = this.handleChange.bind(this);
+		this.handleSubmit = this.handleSubmit.bind(this);
+	}
+
+	handleChange(event) {
+		this.setState({ text: event.target.value });
+	}
+
+	handleSubmit(event) {
+		event.preventDefault();
+		const text = this.state.text.trim();
+		if (!text) return;
+		const todo = { id: Date.now(), text, completed: false };
+		this.setState(({ todos }) => ({ todos: [...todos, todo], text: '' }));
+	}
+
+	toggle(id) {
+		this.setState(({ todos }) => ({
+			todos: todos.map(todo => todo.id === id ? Object.assign({}, todo, { completed: !todo.completed }) : todo)
+		}));
+	}
+
+	remove(id) {
+		this.setState(({ todos }) => ({ todos: todos.filter(todo => todo.id !== id) }));
+	}
+
+	renderFilters() {
+		return (
+			<ul className="filters">
+				{FILTERS.map(filter =>
+					<li key={filter}>
+						<a href={`#/${filter}`}
+							className={filter === this.state.filter ? 'selected' : ''}
+							onClick={() => this.setState({ filter })}>
+							{filter}
+						</a>
+					</li>
+				)}
+			</ul>
+		);
+	}
+
+	render() {
+		const { todos, filter, text } = this.state;
+		const visible = filterTodos(todos, filter);
+		const remaining = countRemaining(todos);
+		return (
+			<section className="todoapp">
+				<header className="header">
+					<h1>todos</h1>
+					<form onSubmit={this.handleSubmit}>
+						<input className="new-todo"
+							placeholder="What needs to be done?"
+							value={text}
+							onChange={this.handleChange}
+							autoFocus={true} />
+					</form>
+				</header>
+				<TodoList todos={visible}
+					onToggle={id => this.toggle(id)}
+					onRemove={id => this.remove(id)} />
+				<footer className="footer">
+					<span className="todo-count">
+						<strong>{remaining}</strong> {remaining === 1 ? 'item' : 'items'} left
+					</span>
+					{this.renderFilters()}
+				</footer>
+			</section>
+		);
+	}
+}
+
+export default TodoApp;
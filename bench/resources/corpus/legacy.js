@@ -0,0 +1,88 @@
+var EventEmitter = require('./eventEmitter');
+var utils = require('./utils');
+
+function Collection(models, options) {
+	EventEmitter.call(this);
+	options = options || {};
+	this.comparator = options.comparator || null;
+	this.models = [];
+	this.byId = {};
+	if (models) this.reset(models);
+}
+
+Collection.prototype = Object.create(EventEmitter.prototype);
+Collection.prototype.constructor = Collection;
+
+Collection.prototype.reset = function (models) {
+	this.models = [];
+	this.byId = {};
+	for (var i = 0; i < models.length; i++) this.add(models[i], { silent: true });
+	this.emit('reset', this);
+	return this;
+};
+
+Collection.prototype.add = function (model, options) {
+	options = options || {};
+	if (this.byId[model.id]) return this.byId[model.id];
+	this.byId[model.id] = model;
+	this.models.push(model);
+	if (this.comparator) this.sort({ silent: true });
+	if (!options.silent) this.emit('add', model, this);
+	return model;
+};
+
+Collection.prototype.remove = function (model) {
+	var index = this.models.indexOf(model);
+	if (index < 0) return null;
+	this.models.splice(index, 1);
+	delete this.byId[model.id];
+	this.emit('remove', model, this);
+	return model;
+};
+
+Collection.prototype.sort = function (options) {
+	var comparator = this.comparator;
+	if (typeof comparator === 'string') {
+		var key = comparator;
+		comparator = function (a, b) {
+			return a[key] < b[key] ? -1 : a[key] > b[key] ? 1 : 0;
+		};
+	}
+	this.models.sort(comparator);
+	if (!(options && options.silent)) this.emit('sort', this);
+	return this;
+};
+
+Collection.prototype.where = function (attributes) {
+	return utils.filter(this.models, function (model) {
+		for (var key in attributes) {
+			if (attributes.hasOwnProperty(key) && model[key] !== attributes[key]) return false;
+		}
+		return true;
+	});
+};
+
+Collection.prototype.pluck = function (attribute) {
+	var result = new Array(this.models.length);
+	for (var i = 0; i < this.models.length; i++) result[i] = this.models[i][attribute];
+	return result;
+};
+
+Collection.prototype.toJSON = function () {
+	return this.models.map(function (model) {
+		return typeof model.toJSON === 'function' ? model.toJSON() : utils.extend({}, model);
+	});
+};
+
+Collection.prototype.parse = function (response) {
+	var pattern = /^\s*(\d+)\s*:\s*(.*)$/;
+	var lines = String(response).split(/\r?\n/);
+	var models = [];
+	for (var i = 0; i < lines.length; i++) {
+		var match = pattern.exec(lines[i]);
+		if (match) models.push({ id: parseInt(match[1], 10), value: match[2] });
+	}
+	return models;
+};
+
+module.exports = Collection;
@@ -0,0 +1,76 @@
+export const filterTodos = (todos, filter) => {
+	switch (filter) {
+		case 'active': return todos.filter(todo => !todo.completed);
+		case 'completed': return todos.filter(todo => todo.completed);
+		default: return todos;
+	}
+};
+
+export const countRemaining = todos =>
+	todos.reduce((count, todo) => todo.completed ? count : count + 1, 0);
+
+export class TodoStore {
+
+	constructor(key = 'todos', storage = null) {
+		this.key = key;
+		this.storage = storage;
+		this.listeners = new Set();
+		this.todos = this.load();
+	}
+
+	load() {
+		if (!this.storage) return [];
+		try {
+			return JSON.parse(this.storage.getItem(this.key)) || [];
+		} catch (e) {
+			return [];
+		}
+	}
+
+	save() {
+		if (this.storage) this.storage.setItem(this.key, JSON.stringify(this.todos));
+		for (let listener of this.listeners) listener(this.todos);
+	}
+
+	subscribe(listener) {
+		this.listeners.add(listener);
+		return () => this.listeners.delete(listener);
+	}
+
+	add(text) {
+		this.todos = [...this.todos, { id: Date.now(), text, completed: false }];
+		this.save();
+	}
+
+	update(id, changes) {
+		this.todos = this.todos.map(todo => todo.id === id ? Object.assign({}, todo, changes) : todo);
+		this.save();
+	}
+
+	*[Symbol.iterator]() {
+		yield* this.todos;
+	}
+}
+
+export function groupBy(items, keyFn) {
+	const groups = new Map();
+	for (const item of items) {
+		const key = keyFn(item);
+		if (!groups.has(key)) groups.set(key, []);
+		groups.get(key).push(item);
+	}
+	return groups;
+}
+
+export const debounce = (fn, wait = 100) => {
+	let timeout = null;
+	return (...args) => {
+		clearTimeout(timeout);
+		timeout = setTimeout(() => fn(...args), wait);
+	};
+};
+
+export const template = ({ title, items }) => `
+	<h2>${title}</h2>
+	<ul>${items.map(item => `<li>${item}</li>`).join('')}</ul>
+`;
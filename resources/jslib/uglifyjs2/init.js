@@ -17,6 +17,7 @@ exports.minify = function(codes, options) {
         mangleProperties : false,
         nameCache        : null,
         output           : null,
+        source_map       : null,
         compress         : {},
         parse            : {}
     });
@@ -58,7 +59,7 @@ exports.minify = function(codes, options) {
 	}
 
     // 5. output
-	var stream = UglifyJS.OutputStream();
+	var stream = UglifyJS.OutputStream({ source_map : options.source_map });
 	toplevel.print(stream);
 	return stream.toString();
 };
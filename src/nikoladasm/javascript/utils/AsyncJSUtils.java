@@ -0,0 +1,194 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Cancelling a future, or letting its timeout expire, interrupts the thread
+ * running the call. That releases a caller waiting for a pooled engine or
+ * blocked in resolver I/O; a script that is already running inside the
+ * engine runs to completion and its result is dropped.
+ */
+public class AsyncJSUtils {
+
+	private static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER;
+
+	static {
+		TIMEOUT_SCHEDULER = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("js-utils-timeout-"));
+		TIMEOUT_SCHEDULER.setRemoveOnCancelPolicy(true);
+	}
+
+	private static class Task<T> implements Runnable {
+
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		private final Callable<T> callable;
+		private Thread runner;
+
+		private Task(Callable<T> callable) {
+			this.callable = callable;
+			future.whenComplete((result, e) -> interrupt());
+		}
+
+		private synchronized boolean start() {
+			if (future.isDone()) return false;
+			runner = Thread.currentThread();
+			return true;
+		}
+
+		private synchronized void finish() {
+			runner = null;
+			Thread.interrupted();
+		}
+
+		private synchronized void interrupt() {
+			if (runner != null) runner.interrupt();
+		}
+
+		@Override
+		public void run() {
+			if (!start()) return;
+			T result;
+			try {
+				result = callable.call();
+			} catch (Throwable e) {
+				finish();
+				future.completeExceptionally(e);
+				return;
+			}
+			finish();
+			future.complete(result);
+		}
+	}
+
+	private final JSUtils jsUtils;
+	private volatile Executor executor;
+	private volatile Executor resolverExecutor;
+
+	public AsyncJSUtils(JSUtils jsUtils) {
+		this.jsUtils = jsUtils;
+	}
+
+	private static ThreadFactory daemonThreadFactory(String prefix) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix+counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	public JSUtils jsUtils() {
+		return jsUtils;
+	}
+
+	public AsyncJSUtils executor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	public Executor executor() {
+		Executor current = executor;
+		if (current != null) return current;
+		synchronized (this) {
+			if (executor == null)
+				executor = Executors.newCachedThreadPool(daemonThreadFactory("js-utils-async-"));
+			return executor;
+		}
+	}
+
+	public AsyncJSUtils resolverExecutor(Executor resolverExecutor) {
+		this.resolverExecutor = resolverExecutor;
+		return this;
+	}
+
+	public Executor resolverExecutor() {
+		Executor current = resolverExecutor;
+		return (current == null) ? executor() : current;
+	}
+
+	public static <T> CompletableFuture<T> timeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+		if (future.isDone()) return future;
+		ScheduledFuture<?> scheduled = TIMEOUT_SCHEDULER.schedule(() ->
+			future.completeExceptionally(new TimeoutException("Timed out after "+unit.toMillis(timeout)+" ms")),
+			timeout, unit);
+		future.whenComplete((result, e) -> scheduled.cancel(false));
+		return future;
+	}
+
+	private <T> CompletableFuture<T> submit(Callable<T> callable, Executor executor) {
+		Task<T> task = new Task<>(callable);
+		try {
+			executor.execute(task);
+		} catch (RuntimeException e) {
+			task.future.completeExceptionally(e);
+		}
+		return task.future;
+	}
+
+	public CompletableFuture<String> transformJSXtoJS(String jsxSource) {
+		return transformJSXtoJS(jsxSource, null);
+	}
+
+	public CompletableFuture<String> transformJSXtoJS(String jsxSource, String[] additionalPresets) {
+		return submit(() -> jsUtils.transformJSXtoJS(jsxSource, additionalPresets), executor());
+	}
+
+	public CompletableFuture<String> transformES2015toES5(String es2015Source) {
+		return transformES2015toES5(es2015Source, null);
+	}
+
+	public CompletableFuture<String> transformES2015toES5(String es2015Source, String[] additionalPresets) {
+		return submit(() -> jsUtils.transformES2015toES5(es2015Source, additionalPresets), executor());
+	}
+
+	public CompletableFuture<String> transformJSXAndES2015toES5(String jsxAndES2015Source) {
+		return transformJSXAndES2015toES5(jsxAndES2015Source, null);
+	}
+
+	public CompletableFuture<String> transformJSXAndES2015toES5(String jsxAndES2015Source, String[] additionalPresets) {
+		return submit(() -> jsUtils.transformJSXAndES2015toES5(jsxAndES2015Source, additionalPresets), executor());
+	}
+
+	public CompletableFuture<String> optimizeByUglifyJS2Script(String source, String jsOptionsObject) {
+		return submit(() -> jsUtils.optimizeByUglifyJS2Script(source, jsOptionsObject), executor());
+	}
+
+	public CompletableFuture<String> staticAnalyzeByJSHintScript(String source, String jsOptionsObject, String jsPredefObject) {
+		return submit(() -> jsUtils.staticAnalyzeByJSHintScript(source, jsOptionsObject, jsPredefObject), executor());
+	}
+
+	public CompletableFuture<Map<Path,Map<String,Path>>> getES2015DependenciesMap(Path topModule) {
+		return submit(() -> jsUtils.getES2015DependenciesMap(topModule), resolverExecutor());
+	}
+
+	public CompletableFuture<Map<Path,Map<String,Path>>> getCJSDependenciesMap(Path topModule) {
+		return submit(() -> jsUtils.getCJSDependenciesMap(topModule), resolverExecutor());
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.io.IOException;
+
+public final class Base64VLQ {
+
+	private static final String BASE64_DIGITS =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+	private static final int[] BASE64_VALUES = new int[128];
+	private static final int VLQ_BASE_SHIFT = 5;
+	private static final int VLQ_BASE_MASK = (1 << VLQ_BASE_SHIFT) - 1;
+	private static final int VLQ_CONTINUATION_BIT = 1 << VLQ_BASE_SHIFT;
+
+	static {
+		for (int i = 0; i < BASE64_VALUES.length; i++)
+			BASE64_VALUES[i] = -1;
+		for (int i = 0; i < BASE64_DIGITS.length(); i++)
+			BASE64_VALUES[BASE64_DIGITS.charAt(i)] = i;
+	}
+
+	private Base64VLQ() {}
+
+	public static void encode(Appendable out, int value) throws IOException {
+		long vlq = (value < 0) ? ((-(long) value) << 1) | 1 : ((long) value) << 1;
+		do {
+			int digit = (int) (vlq & VLQ_BASE_MASK);
+			vlq >>>= VLQ_BASE_SHIFT;
+			if (vlq > 0) digit |= VLQ_CONTINUATION_BIT;
+			out.append(BASE64_DIGITS.charAt(digit));
+		} while (vlq > 0);
+	}
+
+	/*
+	 * Decodes one value starting at position[0] and moves position[0]
+	 * past it.
+	 */
+	public static int decode(CharSequence in, int[] position) {
+		long result = 0;
+		int shift = 0;
+		int digit;
+		do {
+			if (position[0] >= in.length())
+				throw new IllegalArgumentException("Unexpected end of VLQ value at "+position[0]);
+			char c = in.charAt(position[0]++);
+			digit = (c < BASE64_VALUES.length) ? BASE64_VALUES[c] : -1;
+			if (digit < 0)
+				throw new IllegalArgumentException("Invalid base64 digit '"+c+"' at "+(position[0] - 1));
+			result += ((long) (digit & VLQ_BASE_MASK)) << shift;
+			shift += VLQ_BASE_SHIFT;
+		} while ((digit & VLQ_CONTINUATION_BIT) != 0);
+		long value = result >>> 1;
+		return (int) (((result & 1) == 1) ? -value : value);
+	}
+}
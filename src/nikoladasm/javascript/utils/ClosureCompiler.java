@@ -0,0 +1,257 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.CompilerOptions.LanguageMode;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.Result;
+import com.google.javascript.jscomp.SourceFile;
+
+import nikoladasm.javascript.utils.dependencies.DependencyGraph;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Programmatic Closure Compiler entry point: no System.exit, sources and
+ * externs in memory. The default externs are read from the compiler jar
+ * once per JVM and shared, as are externs added here. A Compiler instance
+ * isn't thread safe, so every compilation gets its own and independent
+ * compilations can run concurrently.
+ */
+public class ClosureCompiler {
+
+	@FunctionalInterface
+	public static interface CompilerOptionsCustomizer {
+		void customize(CompilerOptions options);
+	}
+
+	public static class Diagnostic {
+
+		public final String sourceName;
+		public final int line;
+		public final int character;
+		public final String type;
+		public final String description;
+
+		Diagnostic(JSError error) {
+			sourceName = error.sourceName;
+			line = error.lineNumber;
+			character = error.getCharno();
+			type = (error.getType() == null) ? null : error.getType().key;
+			description = error.description;
+		}
+
+		@Override
+		public String toString() {
+			return sourceName+":"+line+":"+character+" "+description+((type == null) ? "" : " ("+type+")");
+		}
+	}
+
+	public static class Output {
+
+		public final String code;
+		public final boolean success;
+		public final List<Diagnostic> errors;
+		public final List<Diagnostic> warnings;
+
+		Output(String code, boolean success, List<Diagnostic> errors, List<Diagnostic> warnings) {
+			this.code = code;
+			this.success = success;
+			this.errors = Collections.unmodifiableList(errors);
+			this.warnings = Collections.unmodifiableList(warnings);
+		}
+	}
+
+	private static volatile List<SourceFile> defaultExterns;
+
+	private final List<SourceFile> externs = new ArrayList<>();
+	private volatile boolean useDefaultExterns = true;
+	private volatile CompilationLevel compilationLevel = CompilationLevel.SIMPLE_OPTIMIZATIONS;
+	private volatile LanguageMode languageIn;
+	private volatile LanguageMode languageOut;
+	private volatile CompilerOptionsCustomizer optionsCustomizer;
+
+	private static List<SourceFile> defaultExterns() {
+		List<SourceFile> externs = defaultExterns;
+		if (externs != null) return externs;
+		synchronized (ClosureCompiler.class) {
+			if (defaultExterns == null) {
+				try {
+					defaultExterns = Collections.unmodifiableList(new ArrayList<>(CommandLineRunner.getDefaultExterns()));
+				} catch (Exception e) {
+					throw new JSUtilsException("Can't load closure compiler default externs", e);
+				}
+			}
+			return defaultExterns;
+		}
+	}
+
+	public synchronized ClosureCompiler externs(String name, String code) {
+		externs.add(SourceFile.fromCode(name, code));
+		return this;
+	}
+
+	public synchronized ClosureCompiler clearExterns() {
+		externs.clear();
+		return this;
+	}
+
+	public ClosureCompiler useDefaultExterns(boolean useDefaultExterns) {
+		this.useDefaultExterns = useDefaultExterns;
+		return this;
+	}
+
+	public boolean useDefaultExterns() {
+		return useDefaultExterns;
+	}
+
+	public ClosureCompiler compilationLevel(CompilationLevel compilationLevel) {
+		this.compilationLevel = compilationLevel;
+		return this;
+	}
+
+	public CompilationLevel compilationLevel() {
+		return compilationLevel;
+	}
+
+	public ClosureCompiler languageIn(LanguageMode languageIn) {
+		this.languageIn = languageIn;
+		return this;
+	}
+
+	public LanguageMode languageIn() {
+		return languageIn;
+	}
+
+	public ClosureCompiler languageOut(LanguageMode languageOut) {
+		this.languageOut = languageOut;
+		return this;
+	}
+
+	public LanguageMode languageOut() {
+		return languageOut;
+	}
+
+	public ClosureCompiler optionsCustomizer(CompilerOptionsCustomizer optionsCustomizer) {
+		this.optionsCustomizer = optionsCustomizer;
+		return this;
+	}
+
+	public CompilerOptionsCustomizer optionsCustomizer() {
+		return optionsCustomizer;
+	}
+
+	private List<SourceFile> compilationExterns() {
+		List<SourceFile> compilationExterns = new ArrayList<>();
+		if (useDefaultExterns) compilationExterns.addAll(defaultExterns());
+		synchronized (this) {
+			compilationExterns.addAll(externs);
+		}
+		return compilationExterns;
+	}
+
+	private CompilerOptions compilerOptions() {
+		CompilerOptions options = new CompilerOptions();
+		compilationLevel.setOptionsForCompilationLevel(options);
+		if (languageIn != null) options.setLanguageIn(languageIn);
+		if (languageOut != null) options.setLanguageOut(languageOut);
+		CompilerOptionsCustomizer customizer = optionsCustomizer;
+		if (customizer != null) customizer.customize(options);
+		return options;
+	}
+
+	private static List<Diagnostic> diagnostics(JSError[] errors) {
+		List<Diagnostic> diagnostics = new ArrayList<>();
+		if (errors != null)
+			for (JSError error : errors)
+				diagnostics.add(new Diagnostic(error));
+		return diagnostics;
+	}
+
+	public Output compile(Map<String,String> sources) {
+		List<SourceFile> inputs = new ArrayList<>(sources.size());
+		sources.forEach((name, code) -> inputs.add(SourceFile.fromCode(name, code)));
+		Compiler compiler = new Compiler();
+		Result result = compiler.compile(compilationExterns(), inputs, compilerOptions());
+		return new Output(result.success ? compiler.toSource() : null, result.success,
+			diagnostics(result.errors), diagnostics(result.warnings));
+	}
+
+	public Output compile(String name, String code) {
+		return compile(Collections.singletonMap(name, code));
+	}
+
+	/*
+	 * Modules go in dependencies-first order.
+	 */
+	public Output compile(DependencyGraph graph) {
+		Map<String,String> sources = new LinkedHashMap<>();
+		for (Path module : graph.topologicalOrder()) {
+			try {
+				sources.put(module.toString(), JSUtils.readFile(module, UTF_8));
+			} catch (Exception e) {
+				throw new JSUtilsException("Can't read module "+module, e);
+			}
+		}
+		return compile(sources);
+	}
+
+	public List<Output> compileAll(List<Map<String,String>> bundles, int parallelism) {
+		int workers = Math.min(parallelism, bundles.size());
+		if (workers <= 1) {
+			List<Output> outputs = new ArrayList<>(bundles.size());
+			for (Map<String,String> bundle : bundles)
+				outputs.add(compile(bundle));
+			return outputs;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			List<Future<Output>> futures = new ArrayList<>(bundles.size());
+			for (Map<String,String> bundle : bundles)
+				futures.add(executor.submit(() -> compile(bundle)));
+			List<Output> outputs = new ArrayList<>(bundles.size());
+			for (Future<Output> future : futures)
+				outputs.add(future.get());
+			return outputs;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JSUtilsException("Interrupted while compiling by closure compiler", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof JSUtilsException)
+				throw (JSUtilsException) e.getCause();
+			throw new JSUtilsException("Can't compile by closure compiler", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * In-memory metrics: a histogram per latency or length metric and a
+ * counter per event, created on first use. Histograms use power of two
+ * buckets, so percentiles are accurate to within a factor of two.
+ */
+public class HistogramMetricsListener implements MetricsListener {
+
+	public static class Histogram {
+
+		private static final int BUCKETS = 64;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+		private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+		public void record(long value) {
+			long recorded = Math.max(0, value);
+			buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(recorded) - ((recorded == 0) ? 0 : 1));
+			count.increment();
+			sum.add(recorded);
+			min.accumulate(recorded);
+			max.accumulate(recorded);
+		}
+
+		public long count() {
+			return count.sum();
+		}
+
+		public long sum() {
+			return sum.sum();
+		}
+
+		public long min() {
+			return (count() == 0) ? 0 : min.get();
+		}
+
+		public long max() {
+			return (count() == 0) ? 0 : max.get();
+		}
+
+		public double mean() {
+			long count = count();
+			return (count == 0) ? 0 : (double) sum() / count;
+		}
+
+		/*
+		 * Upper bound of the bucket holding the quantile, capped by max.
+		 */
+		public long percentile(double quantile) {
+			if (quantile < 0 || quantile > 1)
+				throw new IllegalArgumentException("Invalid quantile "+quantile);
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) total += buckets.get(i);
+			if (total == 0) return 0;
+			long rank = (long) Math.ceil(quantile * total);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets.get(i);
+				if (seen >= rank && seen > 0)
+					return Math.min(max(), (i >= BUCKETS - 1) ? Long.MAX_VALUE : (1L << i + 1) - 1);
+			}
+			return max();
+		}
+
+		public void reset() {
+			for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+			count.reset();
+			sum.reset();
+			min.reset();
+			max.reset();
+		}
+	}
+
+	public static class Counter {
+
+		private final LongAdder count = new LongAdder();
+
+		public void increment() {
+			count.increment();
+		}
+
+		public long count() {
+			return count.sum();
+		}
+
+		public void reset() {
+			count.reset();
+		}
+	}
+
+	public static final String LATENCY_SUFFIX = ".nanos";
+	public static final String INPUT_SUFFIX = ".input";
+	public static final String OUTPUT_SUFFIX = ".output";
+	public static final String FAILED_SUFFIX = ".failed";
+	public static final String HIT_SUFFIX = ".hit";
+	public static final String MISS_SUFFIX = ".miss";
+
+	private final ConcurrentMap<String,Histogram> histograms = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String,Counter> counters = new ConcurrentHashMap<>();
+
+	protected void histogramCreated(String name, Histogram histogram) {
+	}
+
+	protected void counterCreated(String name, Counter counter) {
+	}
+
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram != null) return histogram;
+		return histograms.computeIfAbsent(name, key -> {
+			Histogram created = new Histogram();
+			histogramCreated(key, created);
+			return created;
+		});
+	}
+
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter != null) return counter;
+		return counters.computeIfAbsent(name, key -> {
+			Counter created = new Counter();
+			counterCreated(key, created);
+			return created;
+		});
+	}
+
+	public Map<String,Histogram> histograms() {
+		return Collections.unmodifiableMap(new TreeMap<>(histograms));
+	}
+
+	public Map<String,Counter> counters() {
+		return Collections.unmodifiableMap(new TreeMap<>(counters));
+	}
+
+	public double hitRate(String cache) {
+		long hits = counter(cache+HIT_SUFFIX).count();
+		long total = hits + counter(cache+MISS_SUFFIX).count();
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+
+	public void reset() {
+		histograms.values().forEach(Histogram::reset);
+		counters.values().forEach(Counter::reset);
+	}
+
+	@Override
+	public void operation(String operation, long nanos, long inputLength, long outputLength, boolean failed) {
+		histogram(operation+LATENCY_SUFFIX).record(nanos);
+		if (inputLength >= 0) histogram(operation+INPUT_SUFFIX).record(inputLength);
+		if (outputLength >= 0) histogram(operation+OUTPUT_SUFFIX).record(outputLength);
+		if (failed) counter(operation+FAILED_SUFFIX).increment();
+	}
+
+	@Override
+	public void engineCreated(String pool, long nanos) {
+		histogram("engine."+pool+".create"+LATENCY_SUFFIX).record(nanos);
+	}
+
+	@Override
+	public void engineWaited(String pool, long nanos) {
+		histogram("engine."+pool+".wait"+LATENCY_SUFFIX).record(nanos);
+	}
+
+	@Override
+	public void cacheAccessed(String cache, boolean hit) {
+		counter(cache+(hit ? HIT_SUFFIX : MISS_SUFFIX)).increment();
+	}
+
+	@Override
+	public void fileRead(Path path, long nanos, long length) {
+		histogram("file.read"+LATENCY_SUFFIX).record(nanos);
+		histogram("file.read.length").record(length);
+	}
+
+	@Override
+	public void moduleParsed(Path path, long nanos, boolean scanned) {
+		histogram((scanned ? "resolver.scan" : "resolver.parse")+LATENCY_SUFFIX).record(nanos);
+	}
+
+	@Override
+	public void fileProbed(Path path) {
+		counter("resolver.stat").increment();
+	}
+}
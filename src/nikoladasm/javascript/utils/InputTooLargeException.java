@@ -0,0 +1,46 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+public class InputTooLargeException extends JSUtilsException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String operation;
+	private final long inputLength;
+	private final long maxInputLength;
+
+	public InputTooLargeException(String operation, long inputLength, long maxInputLength) {
+		super(operation+" input of "+inputLength+" chars exceeds the limit of "+maxInputLength);
+		this.operation = operation;
+		this.inputLength = inputLength;
+		this.maxInputLength = maxInputLength;
+	}
+
+	public String operation() {
+		return operation;
+	}
+
+	public long inputLength() {
+		return inputLength;
+	}
+
+	public long maxInputLength() {
+		return maxInputLength;
+	}
+}
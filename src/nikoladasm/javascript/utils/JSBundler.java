@@ -0,0 +1,493 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nikoladasm.javascript.utils.dependencies.DependencyGraph;
+import nikoladasm.javascript.utils.dependencies.ModuleSpecifierScanner;
+import nikoladasm.javascript.utils.dependencies.ModuleSpecifierScanner.RequireCall;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Modules are numbered in topological order (dependencies first) and
+ * emitted as CommonJS function wrappers into a registry array. Literal
+ * require calls found by the specifier scanner are rewritten to numeric
+ * ids; anything else falls back to the per-module specifier map, and a
+ * relative require that isn't in the map fails the bundle rather than the
+ * page. ES2015 modules are always run through Babel with the es2015 preset
+ * added, so that their imports and re-exports become require calls.
+ *
+ * In split mode ids are shared by all chunks. Modules reached from the
+ * same set of entries form a group; a group used by several entries
+ * becomes a shared chunk once it reaches minSharedSize characters of
+ * output, otherwise it is copied into each of those entry chunks. Chunks
+ * register into a global registry, so an entry chunk must be loaded
+ * after its required chunks.
+ */
+public class JSBundler {
+
+	public static final long DEFAULT_MIN_SHARED_SIZE = 30*1024;
+
+	public static enum ModuleFormat {
+		CJS, ES2015
+	}
+
+	public static class Bundle {
+
+		public final String code;
+		public final Path entry;
+		public final List<Path> modules;
+
+		Bundle(String code, Path entry, List<Path> modules) {
+			this.code = code;
+			this.entry = entry;
+			this.modules = Collections.unmodifiableList(modules);
+		}
+	}
+
+	public static class Chunk {
+
+		public final String name;
+		public final Path entry;
+		public final String code;
+		public final List<Path> modules;
+		public final List<String> requiredChunks;
+
+		Chunk(String name, Path entry, String code, List<Path> modules, List<String> requiredChunks) {
+			this.name = name;
+			this.entry = entry;
+			this.code = code;
+			this.modules = Collections.unmodifiableList(modules);
+			this.requiredChunks = Collections.unmodifiableList(requiredChunks);
+		}
+
+		public boolean isShared() {
+			return entry == null;
+		}
+	}
+
+	private static final String ES2015_PRESET = "es2015";
+	private static final String RUNTIME_PREFIX =
+		"(function (modules) {\n"+
+		"  var cache = {};\n"+
+		"  function load(id) {\n"+
+		"    var cached = cache[id];\n"+
+		"    if (cached) return cached.exports;\n"+
+		"    var module = cache[id] = { exports: {} };\n"+
+		"    var entry = modules[id];\n"+
+		"    entry[0].call(module.exports, function (dependency) {\n"+
+		"      return load(typeof dependency === 'number' ? dependency : (entry[1] || {})[dependency]);\n"+
+		"    }, module, module.exports);\n"+
+		"    return module.exports;\n"+
+		"  }\n"+
+		"  return load(";
+	private static final String RUNTIME_MODULES = ");\n})([\n";
+	private static final String RUNTIME_SUFFIX = "]);\n";
+	private static final String CHUNK_RUNTIME_PREFIX =
+		"(function (root, modules, entry) {\n"+
+		"  var registry = root.jsUtilsModuleRegistry;\n"+
+		"  if (!registry) {\n"+
+		"    registry = root.jsUtilsModuleRegistry = { modules: {}, cache: {} };\n"+
+		"    registry.load = function load(id) {\n"+
+		"      var cached = registry.cache[id];\n"+
+		"      if (cached) return cached.exports;\n"+
+		"      var entry = registry.modules[id];\n"+
+		"      if (!entry) throw new Error('Module ' + id + ' is not loaded');\n"+
+		"      var module = registry.cache[id] = { exports: {} };\n"+
+		"      entry[0].call(module.exports, function (dependency) {\n"+
+		"        return load(typeof dependency === 'number' ? dependency : (entry[1] || {})[dependency]);\n"+
+		"      }, module, module.exports);\n"+
+		"      return module.exports;\n"+
+		"    };\n"+
+		"  }\n"+
+		"  for (var id in modules)\n"+
+		"    if (!registry.modules.hasOwnProperty(id)) registry.modules[id] = modules[id];\n"+
+		"  if (entry >= 0) return registry.load(entry);\n"+
+		"})(this, {\n";
+	private static final String CHUNK_RUNTIME_ENTRY = "}, ";
+	private static final String CHUNK_RUNTIME_SUFFIX = ");\n";
+	private static final String SHARED_CHUNK_PREFIX = "shared-";
+
+	private final JSUtils jsUtils;
+	private ModuleFormat moduleFormat = ModuleFormat.CJS;
+	private boolean transformEnabled;
+	private String[] transformPresets;
+	private boolean minifyEnabled;
+	private String minifyOptions;
+	private int parallelism = 1;
+	private long minSharedSize = DEFAULT_MIN_SHARED_SIZE;
+
+	JSBundler(JSUtils jsUtils) {
+		this.jsUtils = jsUtils;
+	}
+
+	public JSBundler moduleFormat(ModuleFormat moduleFormat) {
+		this.moduleFormat = moduleFormat;
+		return this;
+	}
+
+	public ModuleFormat moduleFormat() {
+		return moduleFormat;
+	}
+
+	public JSBundler transform(String[] presets) {
+		transformEnabled = true;
+		transformPresets = presets;
+		return this;
+	}
+
+	public boolean transformEnabled() {
+		return transformEnabled;
+	}
+
+	public String[] transformPresets() {
+		return transformPresets;
+	}
+
+	public JSBundler minify(String jsOptionsObject) {
+		minifyEnabled = true;
+		minifyOptions = jsOptionsObject;
+		return this;
+	}
+
+	public boolean minifyEnabled() {
+		return minifyEnabled;
+	}
+
+	public String minifyOptions() {
+		return minifyOptions;
+	}
+
+	public JSBundler parallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism "+parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public int parallelism() {
+		return parallelism;
+	}
+
+	public JSBundler minSharedSize(long minSharedSize) {
+		this.minSharedSize = minSharedSize;
+		return this;
+	}
+
+	public long minSharedSize() {
+		return minSharedSize;
+	}
+
+	public Bundle bundle(Path entry) {
+		DependencyGraph graph = (moduleFormat == ModuleFormat.ES2015) ?
+			jsUtils.getES2015BundleGraph(entry) : jsUtils.getCJSDependencyGraph(entry);
+		return bundle(graph);
+	}
+
+	public Bundle bundle(DependencyGraph graph) {
+		List<Path> modules = graph.topologicalOrder();
+		Map<Path,Integer> ids = new HashMap<>();
+		for (Path module : modules)
+			ids.put(module, ids.size());
+		List<String> sources = prepareSources(modules);
+		Path base = graph.root().getParent();
+		StringBuilder sb = new StringBuilder(RUNTIME_PREFIX);
+		sb.append(ids.get(graph.root())).append(RUNTIME_MODULES);
+		for (int id = 0; id < modules.size(); id++) {
+			Path module = modules.get(id);
+			appendModule(sb, id, moduleName(base, module), sources.get(id), graph.dependencies(module), ids);
+			sb.append((id < modules.size() - 1) ? ",\n" : "\n");
+		}
+		sb.append(RUNTIME_SUFFIX);
+		return new Bundle(sb.toString(), graph.root(), modules);
+	}
+
+	public List<Chunk> split(Collection<Path> entries) {
+		List<DependencyGraph> graphs = new ArrayList<>(entries.size());
+		for (Path entry : entries)
+			graphs.add((moduleFormat == ModuleFormat.ES2015) ?
+				jsUtils.getES2015BundleGraph(entry) : jsUtils.getCJSDependencyGraph(entry));
+		return split(graphs);
+	}
+
+	public List<Chunk> split(List<DependencyGraph> graphs) {
+		Set<Path> ordered = new LinkedHashSet<>();
+		Map<Path,Map<String,Path>> dependencies = new HashMap<>();
+		Map<Path,BitSet> reachedBy = new HashMap<>();
+		for (int entry = 0; entry < graphs.size(); entry++) {
+			DependencyGraph graph = graphs.get(entry);
+			for (Path module : graph.topologicalOrder()) {
+				if (ordered.add(module)) dependencies.put(module, graph.dependencies(module));
+				reachedBy.computeIfAbsent(module, key -> new BitSet()).set(entry);
+			}
+		}
+		List<Path> modules = new ArrayList<>(ordered);
+		Map<Path,Integer> ids = new HashMap<>();
+		for (Path module : modules)
+			ids.put(module, ids.size());
+		List<String> sources = prepareSources(modules);
+		Map<BitSet,List<Path>> groups = new LinkedHashMap<>();
+		Map<BitSet,Long> groupSizes = new HashMap<>();
+		for (Path module : modules) {
+			BitSet entries = reachedBy.get(module);
+			groups.computeIfAbsent(entries, key -> new ArrayList<>()).add(module);
+			groupSizes.merge(entries, (long) sources.get(ids.get(module)).length(), Long::sum);
+		}
+		List<Chunk> chunks = new ArrayList<>();
+		List<List<Path>> entryModules = new ArrayList<>();
+		List<List<String>> entryRequiredChunks = new ArrayList<>();
+		for (int entry = 0; entry < graphs.size(); entry++) {
+			entryModules.add(new ArrayList<>());
+			entryRequiredChunks.add(new ArrayList<>());
+		}
+		Path base = graphs.isEmpty() ? null : graphs.get(0).root().getParent();
+		for (Map.Entry<BitSet,List<Path>> group : groups.entrySet()) {
+			BitSet entries = group.getKey();
+			if (entries.cardinality() > 1 && groupSizes.get(entries) >= minSharedSize) {
+				String name = SHARED_CHUNK_PREFIX+chunks.size();
+				chunks.add(new Chunk(name, null,
+					chunkCode(group.getValue(), -1, base, sources, dependencies, ids),
+					group.getValue(), Collections.emptyList()));
+				for (int entry = entries.nextSetBit(0); entry >= 0; entry = entries.nextSetBit(entry + 1))
+					entryRequiredChunks.get(entry).add(name);
+			} else {
+				for (int entry = entries.nextSetBit(0); entry >= 0; entry = entries.nextSetBit(entry + 1))
+					entryModules.get(entry).addAll(group.getValue());
+			}
+		}
+		Set<String> names = new HashSet<>();
+		for (Chunk chunk : chunks)
+			names.add(chunk.name);
+		for (int entry = 0; entry < graphs.size(); entry++) {
+			Path root = graphs.get(entry).root();
+			List<Path> chunkModules = entryModules.get(entry);
+			chunkModules.sort(Comparator.comparing(ids::get));
+			chunks.add(new Chunk(entryChunkName(root, names), root,
+				chunkCode(chunkModules, ids.get(root), base, sources, dependencies, ids),
+				chunkModules, entryRequiredChunks.get(entry)));
+		}
+		return chunks;
+	}
+
+	private String entryChunkName(Path entry, Set<String> names) {
+		String fileName = entry.getFileName().toString();
+		int extension = fileName.lastIndexOf('.');
+		String name = (extension > 0) ? fileName.substring(0, extension) : fileName;
+		String uniqueName = name;
+		for (int i = 1; !names.add(uniqueName); i++)
+			uniqueName = name+"-"+i;
+		return uniqueName;
+	}
+
+	private String chunkCode(List<Path> modules, int entry, Path base, List<String> sources,
+			Map<Path,Map<String,Path>> dependencies, Map<Path,Integer> ids) {
+		StringBuilder sb = new StringBuilder(CHUNK_RUNTIME_PREFIX);
+		for (int i = 0; i < modules.size(); i++) {
+			Path module = modules.get(i);
+			int id = ids.get(module);
+			sb.append(id).append(": ");
+			appendModule(sb, id, moduleName(base, module), sources.get(id), dependencies.get(module), ids);
+			sb.append((i < modules.size() - 1) ? ",\n" : "\n");
+		}
+		return sb.append(CHUNK_RUNTIME_ENTRY).append(entry).append(CHUNK_RUNTIME_SUFFIX).toString();
+	}
+
+	private static String moduleName(Path base, Path module) {
+		if (base == null) return module.toString();
+		try {
+			return base.relativize(module).toString();
+		} catch (IllegalArgumentException e) {
+			return module.toString();
+		}
+	}
+
+	private static void appendModule(StringBuilder sb, int id, String name, String source,
+			Map<String,Path> dependencies, Map<Path,Integer> ids) {
+		Map<String,String> unresolved = new LinkedHashMap<>();
+		String code = rewriteRequires(name, source, dependencies, ids, unresolved);
+		sb.append("/* ").append(id).append(": ").append(name.replace("*/", "*\\/")).append(" */\n")
+			.append("[function (require, module, exports) {\n")
+			.append(code);
+		if (!code.endsWith("\n")) sb.append('\n');
+		sb.append("}");
+		if (!unresolved.isEmpty()) {
+			sb.append(", {");
+			boolean first = true;
+			for (Map.Entry<String,String> dependency : unresolved.entrySet()) {
+				if (!first) sb.append(", ");
+				sb.append(dependency.getKey()).append(": ").append(dependency.getValue());
+				first = false;
+			}
+			sb.append("}");
+		}
+		sb.append("]");
+	}
+
+	private List<String> prepareSources(List<Path> modules) {
+		List<String> sources = readSources(modules);
+		if (transformEnabled || moduleFormat == ModuleFormat.ES2015)
+			sources = transformSources(modules, sources);
+		if (minifyEnabled)
+			sources = minifySources(modules, sources);
+		return sources;
+	}
+
+	private List<String> readSources(List<Path> modules) {
+		List<String> sources = new ArrayList<>(modules.size());
+		for (Path module : modules) {
+			try {
+				sources.add(JSUtils.readFile(module, UTF_8));
+			} catch (Exception e) {
+				throw new JSUtilsException("Can't read module "+module, e);
+			}
+		}
+		return sources;
+	}
+
+	private List<String> transformSources(List<Path> modules, List<String> sources) {
+		List<TransformEntry> entries = new ArrayList<>(modules.size());
+		for (int i = 0; i < modules.size(); i++)
+			entries.add(new TransformEntry(modules.get(i), sources.get(i)));
+		String[] presets = transformPresets;
+		if (moduleFormat == ModuleFormat.ES2015) {
+			if (presets == null) {
+				presets = new String[]{ES2015_PRESET};
+			} else if (!Arrays.asList(presets).contains(ES2015_PRESET)) {
+				presets = Arrays.copyOf(presets, presets.length + 1);
+				presets[presets.length - 1] = ES2015_PRESET;
+			}
+		}
+		List<String> transformed = new ArrayList<>(modules.size());
+		for (TransformResult result : jsUtils.transformBatch(entries, presets, parallelism)) {
+			if (!result.isSuccessful())
+				throw new JSUtilsException("Can't bundle module "+result.path, result.error);
+			transformed.add(result.code);
+		}
+		return transformed;
+	}
+
+	private List<String> minifySources(List<Path> modules, List<String> sources) {
+		int workers = Math.min(parallelism, modules.size());
+		if (workers <= 1) {
+			List<String> minified = new ArrayList<>(modules.size());
+			for (int i = 0; i < modules.size(); i++)
+				minified.add(minify(modules.get(i), sources.get(i)));
+			return minified;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			List<Future<String>> futures = new ArrayList<>(modules.size());
+			for (int i = 0; i < modules.size(); i++) {
+				Path module = modules.get(i);
+				String source = sources.get(i);
+				futures.add(executor.submit(() -> minify(module, source)));
+			}
+			List<String> minified = new ArrayList<>(modules.size());
+			for (Future<String> future : futures)
+				minified.add(future.get());
+			return minified;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JSUtilsException("Interrupted while bundling", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof JSUtilsException)
+				throw (JSUtilsException) e.getCause();
+			throw new JSUtilsException("Can't minify modules", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private String minify(Path module, String source) {
+		try {
+			return jsUtils.optimizeByUglifyJS2Script(source, minifyOptions);
+		} catch (JSUtilsException e) {
+			throw new JSUtilsException("Can't bundle module "+module, e);
+		}
+	}
+
+	private static String quote(String value) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') sb.append('\\').append(c);
+			else if (c < 0x20 || c == '\u2028' || c == '\u2029') sb.append(String.format("\\u%04x", (int) c));
+			else sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	/*
+	 * When the scanner can't tokenize the module every dependency goes to
+	 * the specifier map and the source is left as is.
+	 */
+	private static String rewriteRequires(String name, String source, Map<String,Path> dependencies,
+			Map<Path,Integer> ids, Map<String,String> unresolved) {
+		Map<String,Integer> dependencyIds = new HashMap<>();
+		for (Map.Entry<String,Path> dependency : dependencies.entrySet())
+			dependencyIds.put(dependency.getKey(), ids.get(dependency.getValue()));
+		List<RequireCall> calls = ModuleSpecifierScanner.scanRequireCalls(source);
+		StringBuilder sb = null;
+		Set<String> rewritten = new HashSet<>();
+		int position = 0;
+		if (calls != null) {
+			for (RequireCall call : calls) {
+				Integer id = dependencyIds.get(call.moduleSpecifier);
+				if (id == null) {
+					if (isRelative(call.moduleSpecifier))
+						throw new JSUtilsException("Can't bundle module "+name+
+							", "+call.moduleSpecifier+" is not in its dependencies");
+					continue;
+				}
+				if (sb == null) sb = new StringBuilder(source.length());
+				sb.append(source, position, call.start).append("require(").append(id).append(')');
+				position = call.end;
+				rewritten.add(call.moduleSpecifier);
+			}
+		}
+		for (String moduleSpecifier : dependencies.keySet())
+			if (!rewritten.contains(moduleSpecifier))
+				unresolved.put(quote(moduleSpecifier), String.valueOf(dependencyIds.get(moduleSpecifier)));
+		if (sb == null) return source;
+		return sb.append(source, position, source.length()).toString();
+	}
+
+	private static boolean isRelative(String moduleSpecifier) {
+		return moduleSpecifier.startsWith("./") || moduleSpecifier.startsWith("../") ||
+			moduleSpecifier.equals(".") || moduleSpecifier.equals("..");
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.util.Collections;
+import java.util.List;
+
+public class JSHintReport {
+
+	public final List<JSHintResult> results;
+	public final int errorCount;
+	public final int warningCount;
+	public final int failedCount;
+
+	JSHintReport(List<JSHintResult> results) {
+		this.results = Collections.unmodifiableList(results);
+		int errors = 0;
+		int warnings = 0;
+		int failed = 0;
+		for (JSHintResult result : results) {
+			errors += result.errors.size();
+			warnings += result.warnings.size();
+			if (result.failure != null) failed++;
+		}
+		errorCount = errors;
+		warningCount = warnings;
+		failedCount = failed;
+	}
+
+	public boolean hasErrors() {
+		return errorCount > 0 || failedCount > 0;
+	}
+
+	public boolean isClean() {
+		return !hasErrors() && warningCount == 0;
+	}
+}
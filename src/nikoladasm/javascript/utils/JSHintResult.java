@@ -0,0 +1,141 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class JSHintResult {
+
+	public static class Issue {
+
+		public final String code;
+		public final String reason;
+		public final int line;
+		public final int character;
+		public final String evidence;
+
+		Issue(String code, String reason, int line, int character, String evidence) {
+			this.code = code;
+			this.reason = reason;
+			this.line = line;
+			this.character = character;
+			this.evidence = evidence;
+		}
+
+		public boolean isError() {
+			return code != null && code.startsWith("E");
+		}
+
+		@Override
+		public String toString() {
+			return "line "+line+", col "+character+", "+reason+((code == null) ? "" : " ("+code+")");
+		}
+	}
+
+	public static class Variable {
+
+		public final String name;
+		public final int line;
+		public final int character;
+
+		Variable(String name, int line, int character) {
+			this.name = name;
+			this.line = line;
+			this.character = character;
+		}
+
+		@Override
+		public String toString() {
+			return name+"("+line+")";
+		}
+	}
+
+	/*
+	 * Filled in by the JSHint script from JSHINT.data(), so it has to be
+	 * public for the script engine.
+	 */
+	public static class Collector {
+
+		private final List<Issue> errors = new ArrayList<>();
+		private final List<Issue> warnings = new ArrayList<>();
+		private final Set<String> globals = new LinkedHashSet<>();
+		private final List<Variable> implieds = new ArrayList<>();
+		private final List<Variable> unused = new ArrayList<>();
+
+		Collector() {}
+
+		public void issue(String code, String reason, int line, int character, String evidence) {
+			Issue issue = new Issue(code, reason, line, character, evidence);
+			if (issue.isError()) errors.add(issue);
+			else warnings.add(issue);
+		}
+
+		public void global(String name) {
+			globals.add(name);
+		}
+
+		public void implied(String name, int line) {
+			implieds.add(new Variable(name, line, 0));
+		}
+
+		public void unused(String name, int line, int character) {
+			unused.add(new Variable(name, line, character));
+		}
+
+		JSHintResult build(Path path) {
+			return new JSHintResult(path, errors, warnings, new ArrayList<>(globals), implieds, unused, null);
+		}
+	}
+
+	public final Path path;
+	public final List<Issue> errors;
+	public final List<Issue> warnings;
+	public final List<String> globals;
+	public final List<Variable> implieds;
+	public final List<Variable> unused;
+	public final Exception failure;
+
+	JSHintResult(Path path, List<Issue> errors, List<Issue> warnings, List<String> globals,
+			List<Variable> implieds, List<Variable> unused, Exception failure) {
+		this.path = path;
+		this.errors = Collections.unmodifiableList(errors);
+		this.warnings = Collections.unmodifiableList(warnings);
+		this.globals = Collections.unmodifiableList(globals);
+		this.implieds = Collections.unmodifiableList(implieds);
+		this.unused = Collections.unmodifiableList(unused);
+		this.failure = failure;
+	}
+
+	static JSHintResult failed(Path path, Exception failure) {
+		return new JSHintResult(path, Collections.emptyList(), Collections.emptyList(),
+			Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), failure);
+	}
+
+	public boolean isClean() {
+		return failure == null && errors.isEmpty() && warnings.isEmpty();
+	}
+
+	public boolean hasErrors() {
+		return failure != null || !errors.isEmpty();
+	}
+}
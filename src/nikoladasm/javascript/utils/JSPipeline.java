@@ -0,0 +1,109 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+/*
+ * Runs transform, minify and lint in one engine call: intermediate code
+ * stays inside the script runtime and only the final code and the lint
+ * report are returned. Each stage works on the output of the previous one.
+ */
+public class JSPipeline {
+
+	public static class Result {
+
+		public final String code;
+		public final String report;
+		public final long transformNanos;
+		public final long minifyNanos;
+		public final long lintNanos;
+		public final long totalNanos;
+
+		Result(String code, String report, long transformNanos, long minifyNanos, long lintNanos, long totalNanos) {
+			this.code = code;
+			this.report = report;
+			this.transformNanos = transformNanos;
+			this.minifyNanos = minifyNanos;
+			this.lintNanos = lintNanos;
+			this.totalNanos = totalNanos;
+		}
+	}
+
+	private final JSUtils jsUtils;
+	private boolean transformEnabled;
+	private String[] transformPresets;
+	private boolean minifyEnabled;
+	private String minifyOptions;
+	private boolean lintEnabled;
+	private String lintOptions;
+	private String lintPredef;
+
+	JSPipeline(JSUtils jsUtils) {
+		this.jsUtils = jsUtils;
+	}
+
+	public JSPipeline transform(String[] presets) {
+		transformEnabled = true;
+		transformPresets = presets;
+		return this;
+	}
+
+	public JSPipeline minify(String jsOptionsObject) {
+		minifyEnabled = true;
+		minifyOptions = jsOptionsObject;
+		return this;
+	}
+
+	public JSPipeline lint(String jsOptionsObject, String jsPredefObject) {
+		lintEnabled = true;
+		lintOptions = jsOptionsObject;
+		lintPredef = jsPredefObject;
+		return this;
+	}
+
+	public boolean transformEnabled() {
+		return transformEnabled;
+	}
+
+	public String[] transformPresets() {
+		return transformPresets;
+	}
+
+	public boolean minifyEnabled() {
+		return minifyEnabled;
+	}
+
+	public String minifyOptions() {
+		return minifyOptions;
+	}
+
+	public boolean lintEnabled() {
+		return lintEnabled;
+	}
+
+	public String lintOptions() {
+		return lintOptions;
+	}
+
+	public String lintPredef() {
+		return lintPredef;
+	}
+
+	public Result run(String source) {
+		return jsUtils.runPipeline(this, source);
+	}
+}
@@ -24,23 +24,41 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
+import javax.script.CompiledScript;
 import javax.script.ScriptException;
-import javax.script.SimpleBindings;
 
 import com.google.javascript.jscomp.CommandLineRunner;
 
+import nikoladasm.javascript.utils.ScriptEnginePool.PooledScriptEngineFactory;
+import nikoladasm.javascript.utils.ScriptEnginePool.PooledScriptEngineTask;
+import nikoladasm.javascript.utils.ScriptLibrary.ScriptSource;
 import nikoladasm.javascript.utils.dependencies.*;
+import nikoladasm.javascript.utils.dependencies.BaseJSDependenciesResolver.ExtractionMode;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.StandardOpenOption.*;
@@ -54,10 +72,90 @@ public class JSUtils {
 
 	private static final String ADDITIONAL_PRESETS_PATTERN = "_add";
 	private static final String INTEFNAL_BABEL_SCRIPT_PATH = "resources/jslib/babel/babel.min.js";
-	private static final String INPUT_SCRIPT_VAR = "input";
-	private static final String JSX_TRANSFORM_COMMAND = "Babel.transform(input, { presets: ['react'_add] }).code";
-	private static final String ES2015_TRANSFORM_COMMAND = "Babel.transform(input, { presets: ['es2015'_add] }).code";
-	private static final String JSX_AND_ES2015_TRANSFORM_COMMAND = "Babel.transform(input, { presets: ['react','es2015'_add] }).code";
+	private static final String JSX_TRANSFORM_OPTIONS = "({ presets: ['react'_add] })";
+	private static final String ES2015_TRANSFORM_OPTIONS = "({ presets: ['es2015'_add] })";
+	private static final String JSX_AND_ES2015_TRANSFORM_OPTIONS = "({ presets: ['react', 'es2015'_add] })";
+	private static final String[] DEFAULT_BATCH_PRESETS = new String[]{"react", "es2015"};
+	private static final String BABEL_TRANSFORM_FUNCTION = "jsUtilsBabelTransform";
+	private static final String BABEL_SOURCE_MAP_TRANSFORM_FUNCTION = "jsUtilsBabelTransformWithSourceMap";
+	private static final String BABEL_FUNCTIONS =
+		"function jsUtilsBabelTransform(input, options) { return Babel.transform(input, options).code; }\n"+
+		"function jsUtilsBabelTransformWithSourceMap(input, options, sourceName, sink) {\n"+
+		"  options.sourceMaps = true;\n"+
+		"  options.sourceFileName = sourceName;\n"+
+		"  var result = Babel.transform(input, options);\n"+
+		"  sink.addMappings(result.map.mappings,\n"+
+		"    Java.to(result.map.sources, 'java.lang.String[]'), Java.to(result.map.names, 'java.lang.String[]'));\n"+
+		"  return result.code;\n"+
+		"}";
+	private static final String UGLIFYJS2_MINIFY_FUNCTION = "jsUtilsUglifyJS2Minify";
+	private static final String UGLIFYJS2_SOURCE_MAP_MINIFY_FUNCTION = "jsUtilsUglifyJS2MinifyWithSourceMap";
+	private static final String UGLIFYJS2_FUNCTIONS =
+		"function jsUtilsUglifyJS2Minify(input, options) { return UglifyJS.minify(input, options); }\n"+
+		"function jsUtilsUglifyJS2MinifyWithSourceMap(input, options, sourceName, sink) {\n"+
+		"  var sourceMapOptions = {};\n"+
+		"  for (var key in options) sourceMapOptions[key] = options[key];\n"+
+		"  sourceMapOptions.source_map = { add : function (source, line, column, originalLine, originalColumn, name) {\n"+
+		"    sink.add(line, column, sourceName, originalLine, originalColumn, name ? String(name) : null);\n"+
+		"  } };\n"+
+		"  return UglifyJS.minify(input, sourceMapOptions);\n"+
+		"}";
+	private static final String JSHINT_ANALYZE_FUNCTION = "jsUtilsJSHintAnalyze";
+	private static final String JSHINT_FUNCTIONS =
+		"function jsUtilsJSHintAnalyze(input, options, predef) {\n"+
+		"  JSHINT(input, options, predef);\n"+
+		"  return jshintReporter(JSHINT.data(), {extendedReport : true});\n"+
+		"}";
+	private static final String PIPELINE_FUNCTION = "jsUtilsPipeline";
+	private static final String PIPELINE_FUNCTIONS =
+		"function jsUtilsPipeline(input, babelOptions, uglifyOptions, jshintOptions, jshintPredef, output, timings) {\n"+
+		"  var code = input, start;\n"+
+		"  if (babelOptions) {\n"+
+		"    start = java.lang.System.nanoTime();\n"+
+		"    code = Babel.transform(code, babelOptions).code;\n"+
+		"    timings[0] = java.lang.System.nanoTime() - start;\n"+
+		"  }\n"+
+		"  if (uglifyOptions) {\n"+
+		"    start = java.lang.System.nanoTime();\n"+
+		"    code = UglifyJS.minify(code, uglifyOptions);\n"+
+		"    timings[1] = java.lang.System.nanoTime() - start;\n"+
+		"  }\n"+
+		"  if (jshintOptions) {\n"+
+		"    start = java.lang.System.nanoTime();\n"+
+		"    JSHINT(code, jshintOptions, jshintPredef);\n"+
+		"    output[1] = jshintReporter(JSHINT.data(), {extendedReport : true});\n"+
+		"    timings[2] = java.lang.System.nanoTime() - start;\n"+
+		"  }\n"+
+		"  output[0] = code;\n"+
+		"}";
+	private static final String JSHINT_COLLECT_FUNCTION = "jsUtilsJSHintCollect";
+	private static final String JSHINT_COLLECT_FUNCTIONS =
+		"function jsUtilsJSHintCollect(input, options, predef, collector) {\n"+
+		"  JSHINT(input, options, predef);\n"+
+		"  var data = JSHINT.data(), items, item, i, j;\n"+
+		"  items = data.errors || [];\n"+
+		"  for (i = 0; i < items.length; i++) {\n"+
+		"    item = items[i];\n"+
+		"    if (item) collector.issue(item.code || null, item.reason || null,\n"+
+		"      item.line || 0, item.character || 0, item.evidence || null);\n"+
+		"  }\n"+
+		"  items = data.globals || [];\n"+
+		"  for (i = 0; i < items.length; i++) collector.global(String(items[i]));\n"+
+		"  items = data.implieds || [];\n"+
+		"  for (i = 0; i < items.length; i++)\n"+
+		"    for (j = 0; j < items[i].line.length; j++) collector.implied(items[i].name, items[i].line[j]);\n"+
+		"  items = data.unused || [];\n"+
+		"  for (i = 0; i < items.length; i++)\n"+
+		"    collector.unused(items[i].name, items[i].line || 0, items[i].character || 0);\n"+
+		"}";
+	private static final String EMPTY_JS_OBJECT = "({})";
+	private static final long MAPPED_READ_THRESHOLD = 1024 * 1024;
+	private static final String INTERNAL_BABEL_LIBRARY = "babel";
+	private static final String EXTERNAL_BABEL_LIBRARY_PREFIX = "babel:";
+	private static final String UGLIFYJS2_LIBRARY = "uglifyJS2";
+	private static final String JSHINT_LIBRARY = "JSHint";
+	private static final String INTERNAL_PIPELINE_LIBRARY = "pipeline";
+	private static final String EXTERNAL_PIPELINE_LIBRARY_PREFIX = "pipeline:";
 	private static final String[] UGLIFYJS2_SCRIPT_PATHS = new String[]{
 		"resources/jslib/uglifyjs2/utils.js",
 		"resources/jslib/uglifyjs2/ast.js",
@@ -75,33 +173,69 @@ public class JSUtils {
 	private static final String JSHINT_SCRIPT_PATH = "resources/jslib/jshint/jshint.js";
 	private static final String JSHINT_REPORTER_SCRIPT_PATH = "resources/jslib/jshint/reporter.js";
 	
-	private Reader babelScript;
+	public static final int DEFAULT_ENGINE_POOL_SIZE = 1;
+	
+	public static enum Tool {
+		BABEL, UGLIFYJS2, JSHINT, PIPELINE
+	}
+	
+	private static final Tool[] DEFAULT_WARM_UP_TOOLS = new Tool[]{Tool.BABEL, Tool.UGLIFYJS2, Tool.JSHINT};
+	
 	private String externalBabelScriptPath;
-	private ScriptEngine babelScriptEngine;
+	private volatile ScriptEnginePool babelEnginePool;
 	private StringWriter babelScriptEngineStringWriter;
-	private SimpleBindings babelBindings = new SimpleBindings();
 	private ES2015ModuleImportResolver es2015DependenciesResolver;
 	private CJSDependenciesResolver cJSDependenciesResolver;
-	private ScriptEngine uglifyJS2ScriptEngine;
+	private SourceFileReader es2015ResolverFileReader;
+	private SourceFileReader cJSResolverFileReader;
+	private volatile ScriptEnginePool uglifyJS2EnginePool;
 	private StringWriter uglifyJS2ScriptEngineStringWriter;
-	private SimpleBindings uglifyJS2Bindings = new SimpleBindings();
-	private ScriptEngine jshintScriptEngine;
+	private volatile ScriptEnginePool jshintEnginePool;
+	private volatile ScriptEnginePool pipelineEnginePool;
 	private StringWriter jshintScriptEngineStringWriter;
-	private SimpleBindings jshintBindings = new SimpleBindings();
+	private int enginePoolSize = DEFAULT_ENGINE_POOL_SIZE;
+	private ScriptRuntime scriptRuntime;
+	private int resolverParallelism = 1;
+	private ExtractionMode resolverExtractionMode = ExtractionMode.FULL_PARSE;
+	private volatile TransformResultCache transformResultCache;
+	private volatile PersistentTransformCache persistentTransformCache;
+	private volatile MetricsListener metricsListener;
+	private volatile ProcessWorkerPool processWorkerPool;
+	private final Map<Tool,Long> timeoutsMillis = new ConcurrentHashMap<>();
+	private final Map<Tool,Integer> maxInputLengths = new ConcurrentHashMap<>();
 	
+	/*
+	 * Decodes straight from the channel (mapped for large files) and
+	 * normalizes line breaks in the same pass that copies the chars out.
+	 */
 	public static String readFile(Path path, Charset encoding) throws IOException {
-		StringBuffer sb = new StringBuffer();
-		String ls = System.getProperty("line.separator");
-		List<String> lines = Files.readAllLines(path, encoding);
-		for (String line : lines)
-			sb.append(line).append(ls);
-		return sb.toString();
+		ByteBuffer bytes;
+		try (FileChannel channel = FileChannel.open(path, READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File is too large "+path);
+			if (size == 0) {
+				bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+			} else if (size >= MAPPED_READ_THRESHOLD) {
+				bytes = channel.map(MapMode.READ_ONLY, 0, size);
+			} else {
+				bytes = ByteBuffer.allocate((int) size);
+				while (bytes.hasRemaining() && channel.read(bytes) >= 0);
+				bytes.flip();
+			}
+		}
+		CharBuffer chars = encoding.newDecoder().decode(bytes);
+		return LineBreaks.normalizeLines(chars, System.getProperty("line.separator"));
 	}
 	
-	public static void writeFile(String content, Path path, Charset encoding) throws IOException {
-		try (BufferedWriter bwr = new BufferedWriter(
+	private static Writer newWriter(Path path, Charset encoding) throws IOException {
+		return new BufferedWriter(
 			new OutputStreamWriter(
-				Files.newOutputStream(path, CREATE), encoding))) {
+				Files.newOutputStream(path, CREATE, TRUNCATE_EXISTING, WRITE), encoding));
+	}
+	
+	public static void writeFile(String content, Path path, Charset encoding) throws IOException {
+		try (Writer bwr = newWriter(path, encoding)) {
 			bwr.write(content);
 			bwr.flush();
 		}
@@ -109,12 +243,16 @@ public class JSUtils {
 	
 	public JSUtils() {
 		SourceFileReader sfr = path -> readFile(path, UTF_8);
+		es2015ResolverFileReader = sfr;
+		cJSResolverFileReader = sfr;
 		es2015DependenciesResolver = new ES2015ModuleImportResolver(sfr);
 		cJSDependenciesResolver = new CJSDependenciesResolver(sfr);
 	}
 	
-	public JSUtils externalBabelScriptPath(String externalBabelScriptPath) {
+	public synchronized JSUtils externalBabelScriptPath(String externalBabelScriptPath) {
 		this.externalBabelScriptPath = externalBabelScriptPath;
+		babelEnginePool = null;
+		pipelineEnginePool = null;
 		return this;
 	}
 	
@@ -122,16 +260,182 @@ public class JSUtils {
 		return externalBabelScriptPath;
 	}
 	
+	public synchronized JSUtils enginePoolSize(int enginePoolSize) {
+		if (enginePoolSize < 1)
+			throw new IllegalArgumentException("Invalid engine pool size "+enginePoolSize);
+		this.enginePoolSize = enginePoolSize;
+		babelEnginePool = null;
+		uglifyJS2EnginePool = null;
+		jshintEnginePool = null;
+		pipelineEnginePool = null;
+		return this;
+	}
+	
+	public int enginePoolSize() {
+		return enginePoolSize;
+	}
+	
+	public synchronized JSUtils scriptRuntime(ScriptRuntime scriptRuntime) {
+		this.scriptRuntime = scriptRuntime;
+		babelEnginePool = null;
+		uglifyJS2EnginePool = null;
+		jshintEnginePool = null;
+		pipelineEnginePool = null;
+		return this;
+	}
+	
+	public synchronized ScriptRuntime scriptRuntime() {
+		if (scriptRuntime == null) scriptRuntime = ScriptRuntime.defaultRuntime();
+		return scriptRuntime;
+	}
+	
+	public JSUtils transformResultCache(TransformResultCache transformResultCache) {
+		this.transformResultCache = transformResultCache;
+		return this;
+	}
+	
+	public TransformResultCache transformResultCache() {
+		return transformResultCache;
+	}
+	
+	public JSUtils persistentTransformCache(PersistentTransformCache persistentTransformCache) {
+		this.persistentTransformCache = persistentTransformCache;
+		return this;
+	}
+	
+	public PersistentTransformCache persistentTransformCache() {
+		return persistentTransformCache;
+	}
+	
+	/*
+	 * Applies to the engine pools and dependency resolvers too; null turns
+	 * instrumentation off.
+	 */
+	public synchronized JSUtils metricsListener(MetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+		es2015DependenciesResolver.metricsListener(metricsListener);
+		cJSDependenciesResolver.metricsListener(metricsListener);
+		for (ScriptEnginePool pool : new ScriptEnginePool[]{
+				babelEnginePool, uglifyJS2EnginePool, jshintEnginePool, pipelineEnginePool})
+			if (pool != null) pool.metricsListener(metricsListener);
+		return this;
+	}
+	
+	public MetricsListener metricsListener() {
+		return metricsListener;
+	}
+	
+	/*
+	 * Sends babel transforms, UglifyJS2 minification and JSHint reports to
+	 * child JVMs; result caches still apply in this one. Batch, source map,
+	 * pipeline and structured JSHint calls keep running here. The pool is
+	 * owned and closed by the caller.
+	 */
+	public JSUtils processWorkerPool(ProcessWorkerPool processWorkerPool) {
+		this.processWorkerPool = processWorkerPool;
+		return this;
+	}
+	
+	public ProcessWorkerPool processWorkerPool() {
+		return processWorkerPool;
+	}
+	
+	/*
+	 * Worker process arguments reproducing this instance's engine setup;
+	 * workers are only shared between instances with equal setups.
+	 */
+	synchronized List<String> workerConfiguration() {
+		List<String> configuration = new ArrayList<>();
+		configuration.add(ProcessWorker.SCRIPT_RUNTIME_ARGUMENT+scriptRuntime().engineName());
+		Path babelPath = externalBabelPath();
+		if (babelPath != null)
+			configuration.add(ProcessWorker.EXTERNAL_BABEL_SCRIPT_PATH_ARGUMENT+babelPath);
+		return configuration;
+	}
+	
+	/*
+	 * Wall-clock limit for one call of the tool, 0 for none. An evaluation
+	 * running past it is stopped, its engine (or worker process) replaced
+	 * and the call fails with ScriptTimeoutException. In process the stop
+	 * relies on the runtime's cancellation, with Thread.stop as a last
+	 * resort; set a ProcessWorkerPool for limits that always hold.
+	 */
+	public JSUtils timeout(Tool tool, long timeout, TimeUnit unit) {
+		if (timeout <= 0) timeoutsMillis.remove(tool);
+		else timeoutsMillis.put(tool, unit.toMillis(timeout));
+		return this;
+	}
+	
+	public long timeoutMillis(Tool tool) {
+		return timeoutsMillis.getOrDefault(tool, 0L);
+	}
+	
+	/*
+	 * Longest source in chars the tool accepts, 0 for no limit; longer ones
+	 * fail with InputTooLargeException before reaching an engine.
+	 */
+	public JSUtils maxInputLength(Tool tool, int maxInputLength) {
+		if (maxInputLength <= 0) maxInputLengths.remove(tool);
+		else maxInputLengths.put(tool, maxInputLength);
+		return this;
+	}
+	
+	public int maxInputLength(Tool tool) {
+		return maxInputLengths.getOrDefault(tool, 0);
+	}
+	
+	private void checkInputLength(Tool tool, String operation, String source) {
+		int maxInputLength = maxInputLength(tool);
+		if (maxInputLength > 0 && source != null && source.length() > maxInputLength)
+			throw new InputTooLargeException(operation, source.length(), maxInputLength);
+	}
+	
+	private <T> T execute(Tool tool, ScriptEnginePool pool, String source, PooledScriptEngineTask<T> task) throws ScriptException {
+		checkInputLength(tool, pool.name(), source);
+		return pool.execute(task, timeoutMillis(tool));
+	}
+	
 	public JSUtils setES2015ResolverFileReader(SourceFileReader sfr) {
-		es2015DependenciesResolver = new ES2015ModuleImportResolver(sfr);
+		es2015ResolverFileReader = sfr;
+		es2015DependenciesResolver = configure(new ES2015ModuleImportResolver(sfr));
 		return this;
 	}
 	
 	public JSUtils setCJSResolverFileReader(SourceFileReader sfr) {
-		cJSDependenciesResolver = new CJSDependenciesResolver(sfr);
+		cJSResolverFileReader = sfr;
+		cJSDependenciesResolver = configure(new CJSDependenciesResolver(sfr));
 		return this;
 	}
 	
+	private <T extends BaseJSDependenciesResolver> T configure(T resolver) {
+		resolver.parallelism(resolverParallelism)
+			.extractionMode(resolverExtractionMode)
+			.metricsListener(metricsListener);
+		return resolver;
+	}
+	
+	public JSUtils resolverParallelism(int resolverParallelism) {
+		es2015DependenciesResolver.parallelism(resolverParallelism);
+		cJSDependenciesResolver.parallelism(resolverParallelism);
+		this.resolverParallelism = resolverParallelism;
+		return this;
+	}
+	
+	public int resolverParallelism() {
+		return resolverParallelism;
+	}
+	
+	public JSUtils resolverExtractionMode(ExtractionMode resolverExtractionMode) {
+		es2015DependenciesResolver.extractionMode(resolverExtractionMode);
+		cJSDependenciesResolver.extractionMode(resolverExtractionMode);
+		this.resolverExtractionMode = resolverExtractionMode;
+		return this;
+	}
+	
+	public ExtractionMode resolverExtractionMode() {
+		return resolverExtractionMode;
+	}
+	
 	public JSUtils babelScriptEngineStringWriter(StringWriter babelScriptEngineStringWriter) {
 		this.babelScriptEngineStringWriter = babelScriptEngineStringWriter;
 		return this;
@@ -175,67 +479,187 @@ public class JSUtils {
 						filePath, READ), UTF_8));
 	}
 	
-	private Reader babelScript() {
-		if (babelScript != null) return babelScript;
-		if (externalBabelScriptPath == null) {
+	private String readScript(BufferedReader reader) throws IOException {
+		try (BufferedReader br = reader) {
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[8192];
+			int count;
+			while ((count = br.read(buffer)) != -1)
+				sb.append(buffer, 0, count);
+			return sb.toString();
+		}
+	}
+	
+	private Path externalBabelPath() {
+		String scriptPath = externalBabelScriptPath;
+		return (scriptPath == null) ? null : Paths.get(scriptPath).toAbsolutePath().normalize();
+	}
+	
+	private List<ScriptSource> babelSources(Path externalPath) {
+		String scriptPath;
+		String source;
+		if (externalPath == null) {
+			scriptPath = INTEFNAL_BABEL_SCRIPT_PATH;
 			try {
-				babelScript = resourceReader(INTEFNAL_BABEL_SCRIPT_PATH);
+				source = readScript(resourceReader(INTEFNAL_BABEL_SCRIPT_PATH));
 			} catch (IOException | NullPointerException e) {
 				throw new JSUtilsException("Can't load internal babel script", e);
 			}
 		} else {
+			scriptPath = externalPath.toString();
 			try {
-				babelScript = fileReader(Paths.get(externalBabelScriptPath));
+				source = readScript(fileReader(externalPath));
 			} catch (IOException | NullPointerException e) {
 				throw new JSUtilsException("Can't load external babel script", e);
 			}
 		}
-		return babelScript;
+		return Arrays.asList(
+			new ScriptSource(scriptPath, source),
+			new ScriptSource(BABEL_TRANSFORM_FUNCTION, BABEL_FUNCTIONS));
 	}
 	
-	private ScriptEngine babelScriptEngine() throws ScriptException {
-		if (babelScriptEngine != null) return babelScriptEngine;
-		babelScriptEngine = new ScriptEngineManager().getEngineByName("nashorn");
-		babelScriptEngine.eval(babelScript(), babelBindings);
-		return babelScriptEngine;
+	private List<ScriptSource> uglifyJS2Sources() throws IOException {
+		List<ScriptSource> sources = new ArrayList<>();
+		sources.add(new ScriptSource(UGLIFYJS2_LIBRARY, "var exports = {};\n"));
+		for (String path : UGLIFYJS2_SCRIPT_PATHS)
+			sources.add(new ScriptSource(path, readScript(resourceReader(path))));
+		sources.add(new ScriptSource(UGLIFYJS2_MINIFY_FUNCTION, UGLIFYJS2_FUNCTIONS));
+		return sources;
 	}
 	
-	private ScriptEngine uglifyJS2ScriptEngine() {
-		if (uglifyJS2ScriptEngine != null) return uglifyJS2ScriptEngine;
-		uglifyJS2ScriptEngine = new ScriptEngineManager().getEngineByName("nashorn");
-		try {
-			uglifyJS2ScriptEngine.eval("var exports = {};\n", uglifyJS2Bindings);
-			for (String path : UGLIFYJS2_SCRIPT_PATHS)
-				uglifyJS2ScriptEngine.eval(resourceReader(path), uglifyJS2Bindings);
-			return uglifyJS2ScriptEngine;
-		} catch (ScriptException | IOException e) {
-			throw new JSUtilsException("Can't initialize uglifyJS2 script", e);
+	private List<ScriptSource> jshintSources() throws IOException {
+		return Arrays.asList(
+			new ScriptSource(JSHINT_SCRIPT_PATH, readScript(resourceReader(JSHINT_SCRIPT_PATH))),
+			new ScriptSource(JSHINT_REPORTER_SCRIPT_PATH, readScript(resourceReader(JSHINT_REPORTER_SCRIPT_PATH))),
+			new ScriptSource(JSHINT_ANALYZE_FUNCTION, JSHINT_FUNCTIONS),
+			new ScriptSource(JSHINT_COLLECT_FUNCTION, JSHINT_COLLECT_FUNCTIONS));
+	}
+	
+	private ScriptLibrary babelLibrary() {
+		Path path = externalBabelPath();
+		String name = (path == null) ? INTERNAL_BABEL_LIBRARY : EXTERNAL_BABEL_LIBRARY_PREFIX+path;
+		return ScriptLibrary.library(name, scriptRuntime(), () -> babelSources(path));
+	}
+	
+	private ScriptLibrary uglifyJS2Library() {
+		return ScriptLibrary.library(UGLIFYJS2_LIBRARY, scriptRuntime(), this::uglifyJS2Sources);
+	}
+	
+	private ScriptLibrary jshintLibrary() {
+		return ScriptLibrary.library(JSHINT_LIBRARY, scriptRuntime(), this::jshintSources);
+	}
+	
+	/*
+	 * Babel goes first: its UMD wrapper would attach itself to the exports
+	 * object that UglifyJS2 declares instead of the global.
+	 */
+	private ScriptLibrary pipelineLibrary() {
+		Path path = externalBabelPath();
+		String name = (path == null) ? INTERNAL_PIPELINE_LIBRARY : EXTERNAL_PIPELINE_LIBRARY_PREFIX+path;
+		return ScriptLibrary.library(name, scriptRuntime(), () -> {
+			List<ScriptSource> sources = new ArrayList<>(babelSources(path));
+			sources.addAll(jshintSources());
+			sources.addAll(uglifyJS2Sources());
+			sources.add(new ScriptSource(PIPELINE_FUNCTION, PIPELINE_FUNCTIONS));
+			return sources;
+		});
+	}
+	
+	private ScriptEnginePool babelEnginePool() {
+		ScriptEnginePool pool = babelEnginePool;
+		if (pool != null) return pool;
+		synchronized (this) {
+			if (babelEnginePool == null)
+				babelEnginePool = new ScriptEnginePool(babelLibrary().name(), enginePoolSize, () -> babelLibrary().newInstance())
+					.metricsListener(metricsListener);
+			return babelEnginePool;
 		}
 	}
 	
-	private ScriptEngine jshintScriptEngine() {
-		if (jshintScriptEngine != null) return jshintScriptEngine;
-		jshintScriptEngine = new ScriptEngineManager().getEngineByName("nashorn");
+	private ScriptEnginePool uglifyJS2EnginePool() {
+		ScriptEnginePool pool = uglifyJS2EnginePool;
+		if (pool != null) return pool;
+		synchronized (this) {
+			if (uglifyJS2EnginePool == null)
+				uglifyJS2EnginePool = new ScriptEnginePool(UGLIFYJS2_LIBRARY, enginePoolSize, () -> uglifyJS2Library().newInstance())
+					.metricsListener(metricsListener);
+			return uglifyJS2EnginePool;
+		}
+	}
+	
+	private ScriptEnginePool jshintEnginePool() {
+		ScriptEnginePool pool = jshintEnginePool;
+		if (pool != null) return pool;
+		synchronized (this) {
+			if (jshintEnginePool == null)
+				jshintEnginePool = new ScriptEnginePool(JSHINT_LIBRARY, enginePoolSize, () -> jshintLibrary().newInstance())
+					.metricsListener(metricsListener);
+			return jshintEnginePool;
+		}
+	}
+	
+	private ScriptEnginePool pipelineEnginePool() {
+		ScriptEnginePool pool = pipelineEnginePool;
+		if (pool != null) return pool;
+		synchronized (this) {
+			if (pipelineEnginePool == null)
+				pipelineEnginePool = new ScriptEnginePool(pipelineLibrary().name(), enginePoolSize, () -> pipelineLibrary().newInstance())
+					.metricsListener(metricsListener);
+			return pipelineEnginePool;
+		}
+	}
+	
+	private ScriptEnginePool enginePool(Tool tool) {
+		switch (tool) {
+			case BABEL : return babelEnginePool();
+			case UGLIFYJS2 : return uglifyJS2EnginePool();
+			case JSHINT : return jshintEnginePool();
+			case PIPELINE : return pipelineEnginePool();
+			default : throw new IllegalArgumentException("Unknown tool "+tool);
+		}
+	}
+	
+	public JSUtils warmUp() {
+		return warmUp(DEFAULT_WARM_UP_TOOLS);
+	}
+	
+	public JSUtils warmUp(Tool... tools) {
+		List<ScriptEnginePool> pools = new ArrayList<>();
+		for (Tool tool : new LinkedHashSet<>(Arrays.asList(tools)))
+			for (int i = 0; i < enginePoolSize; i++)
+				pools.add(enginePool(tool));
+		if (pools.isEmpty()) return this;
+		ExecutorService executor = Executors.newFixedThreadPool(
+			Math.min(pools.size(), Runtime.getRuntime().availableProcessors()));
 		try {
-			jshintScriptEngine.eval(resourceReader(JSHINT_SCRIPT_PATH), jshintBindings);
-			jshintScriptEngine.eval(resourceReader(JSHINT_REPORTER_SCRIPT_PATH), jshintBindings);
-			return jshintScriptEngine;
-		} catch (ScriptException | IOException e) {
-			throw new JSUtilsException("Can't initialize JSHint script", e);
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (ScriptEnginePool pool : pools)
+				futures.add(executor.submit(pool::prestartEngine));
+			for (Future<Boolean> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JSUtilsException("Interrupted while warming up script engines", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof JSUtilsException)
+				throw (JSUtilsException) e.getCause();
+			throw new JSUtilsException("Can't warm up script engines", e.getCause());
+		} finally {
+			executor.shutdownNow();
 		}
+		return this;
 	}
 	
 	private String correctLinebreak(String source) {
-		String[] lines = source.split("\\R");
-		String ls = System.getProperty("line.separator");
-		StringBuffer sb = new StringBuffer();
-		for (String line : lines)
-			sb.append(line).append(ls);
-		return sb.toString();
+		return LineBreaks.normalize(source, System.getProperty("line.separator"));
 	}
 	
-	public String transformJSXtoJS(String jsxSource) {
-		return transformJSXtoJS(jsxSource, null);
+	private void correctLinebreak(String source, Writer writer) throws IOException {
+		LineBreaks.normalize(source, System.getProperty("line.separator"), writer);
+	}
+	
+	private boolean isStreamable() {
+		return transformResultCache == null && persistentTransformCache == null && processWorkerPool == null;
 	}
 	
 	private String presets(String[] additionalPresets) {
@@ -249,50 +673,325 @@ public class JSUtils {
 		return presets;
 	}
 	
+	private String jsObject(String jsObject) {
+		return (jsObject == null) ? EMPTY_JS_OBJECT : "("+jsObject+")";
+	}
+	
+	@FunctionalInterface
+	private static interface CachedTask {
+		String execute() throws ScriptException;
+	}
+	
+	@FunctionalInterface
+	private static interface MeasuredTask<T> {
+		T execute() throws ScriptException;
+	}
+	
+	private static long length(Object result) {
+		if (result instanceof CharSequence) return ((CharSequence) result).length();
+		if (result instanceof SourceMappedCode) return ((SourceMappedCode) result).code.length();
+		if (result instanceof JSPipeline.Result && ((JSPipeline.Result) result).code != null)
+			return ((JSPipeline.Result) result).code.length();
+		return -1;
+	}
+	
+	private <T> T measured(String operation, String source, MeasuredTask<T> task) throws ScriptException {
+		MetricsListener listener = metricsListener;
+		if (listener == null) return task.execute();
+		long start = System.nanoTime();
+		T result = null;
+		boolean failed = true;
+		try {
+			result = task.execute();
+			failed = false;
+			return result;
+		} finally {
+			listener.operation(operation, System.nanoTime() - start,
+				(source == null) ? -1 : source.length(), length(result), failed);
+		}
+	}
+	
+	private String cached(ScriptLibrary library, String options, String source, CachedTask task) throws ScriptException {
+		TransformResultCache cache = transformResultCache;
+		PersistentTransformCache persistentCache = persistentTransformCache;
+		if (cache == null && persistentCache == null) return task.execute();
+		MetricsListener listener = metricsListener;
+		String contentHash = TransformResultCache.contentHash(source);
+		String result;
+		if (cache != null) {
+			result = cache.get(library.name(), options, contentHash);
+			if (listener != null) listener.cacheAccessed(MetricsListener.MEMORY_TRANSFORM_CACHE, result != null);
+			if (result != null) return result;
+		}
+		if (persistentCache != null) {
+			result = persistentCache.get(library.name(), library.sourceHash(), options, contentHash);
+			if (listener != null) listener.cacheAccessed(MetricsListener.PERSISTENT_TRANSFORM_CACHE, result != null);
+			if (result == null) {
+				result = task.execute();
+				persistentCache.put(library.name(), library.sourceHash(), options, contentHash, result);
+			}
+		} else {
+			result = task.execute();
+		}
+		if (cache != null) cache.put(library.name(), options, contentHash, result);
+		return result;
+	}
+	
+	private String babelTransform(String source, String optionsTemplate, String[] additionalPresets) throws ScriptException {
+		return babelTransform(source, optionsTemplate.replace(ADDITIONAL_PRESETS_PATTERN, presets(additionalPresets)));
+	}
+	
+	String babelTransform(String source, String options) throws ScriptException {
+		ProcessWorkerPool workers = processWorkerPool;
+		if (workers != null) {
+			checkInputLength(Tool.BABEL, INTERNAL_BABEL_LIBRARY, source);
+			return measured(MetricsListener.BABEL_TRANSFORM, source, () -> cached(babelLibrary(), options, source, () ->
+				workers.babelTransform(workerConfiguration(), source, options, timeoutMillis(Tool.BABEL))));
+		}
+		ScriptEnginePool pool = babelEnginePool();
+		ScriptLibrary library = babelLibrary();
+		CompiledScript compiledOptions = library.compile(options);
+		CompiledScript call = library.compileCall(BABEL_TRANSFORM_FUNCTION, 2);
+		return measured(MetricsListener.BABEL_TRANSFORM, source, () -> cached(library, options, source, () ->
+			correctLinebreak(execute(Tool.BABEL, pool, source, engine ->
+				engine.writer(babelScriptEngineStringWriter)
+					.invoke(call, BABEL_TRANSFORM_FUNCTION, source, engine.eval(compiledOptions))).toString())));
+	}
+	
+	/*
+	 * Without result caches or worker processes the raw engine output goes
+	 * straight into the writer, so no intermediate String is built.
+	 */
+	private void babelTransform(String source, String optionsTemplate, String[] additionalPresets,
+			Writer writer) throws ScriptException, IOException {
+		if (!isStreamable()) {
+			writer.write(babelTransform(source, optionsTemplate, additionalPresets));
+			return;
+		}
+		String options = optionsTemplate.replace(ADDITIONAL_PRESETS_PATTERN, presets(additionalPresets));
+		ScriptLibrary library = babelLibrary();
+		CompiledScript compiledOptions = library.compile(options);
+		CompiledScript call = library.compileCall(BABEL_TRANSFORM_FUNCTION, 2);
+		correctLinebreak(measured(MetricsListener.BABEL_TRANSFORM, source, () -> execute(Tool.BABEL, babelEnginePool(), source, engine ->
+			engine.writer(babelScriptEngineStringWriter)
+				.invoke(call, BABEL_TRANSFORM_FUNCTION, source, engine.eval(compiledOptions))).toString()), writer);
+	}
+	
+	private void babelTransform(String source, String optionsTemplate, String[] additionalPresets,
+			Path target) throws ScriptException, IOException {
+		try (Writer writer = newWriter(target, UTF_8)) {
+			babelTransform(source, optionsTemplate, additionalPresets, writer);
+		}
+	}
+	
+	public String transformJSXtoJS(String jsxSource) {
+		return transformJSXtoJS(jsxSource, null);
+	}
+	
 	public String transformJSXtoJS(String jsxSource, String[] additionalPresets) {
-		String presets = presets(additionalPresets);
-		String command = JSX_TRANSFORM_COMMAND.replace(ADDITIONAL_PRESETS_PATTERN, presets);
-		babelBindings.put(INPUT_SCRIPT_VAR, jsxSource);
 		try {
-			babelScriptEngine().getContext().setWriter(babelScriptEngineStringWriter);
-			return correctLinebreak(babelScriptEngine().eval(command, babelBindings).toString());
+			return babelTransform(jsxSource, JSX_TRANSFORM_OPTIONS, additionalPresets);
 		} catch (ScriptException e) {
 			throw new JSUtilsException("Can't transform JSX", e);
 		}
 	}
 	
+	public void transformJSXtoJS(String jsxSource, String[] additionalPresets, Writer writer) {
+		try {
+			babelTransform(jsxSource, JSX_TRANSFORM_OPTIONS, additionalPresets, writer);
+		} catch (ScriptException | IOException e) {
+			throw new JSUtilsException("Can't transform JSX", e);
+		}
+	}
+	
+	public void transformJSXtoJS(String jsxSource, String[] additionalPresets, Path target) {
+		try {
+			babelTransform(jsxSource, JSX_TRANSFORM_OPTIONS, additionalPresets, target);
+		} catch (ScriptException | IOException e) {
+			throw new JSUtilsException("Can't transform JSX", e);
+		}
+	}
+	
 	public String transformES2015toES5(String es2015Source) {
 		return transformES2015toES5(es2015Source, null);
 	}
 
 	public String transformES2015toES5(String es2015Source, String[] additionalPresets) {
-		String presets = presets(additionalPresets);
-		String command = ES2015_TRANSFORM_COMMAND.replace(ADDITIONAL_PRESETS_PATTERN, presets);
-		babelBindings.put(INPUT_SCRIPT_VAR, es2015Source);
 		try {
-			babelScriptEngine().getContext().setWriter(babelScriptEngineStringWriter);
-			return correctLinebreak(babelScriptEngine().eval(command, babelBindings).toString());
+			return babelTransform(es2015Source, ES2015_TRANSFORM_OPTIONS, additionalPresets);
 		} catch (ScriptException e) {
 			throw new JSUtilsException("Can't transform ES2015", e);
 		}
 	}
+	
+	public void transformES2015toES5(String es2015Source, String[] additionalPresets, Writer writer) {
+		try {
+			babelTransform(es2015Source, ES2015_TRANSFORM_OPTIONS, additionalPresets, writer);
+		} catch (ScriptException | IOException e) {
+			throw new JSUtilsException("Can't transform ES2015", e);
+		}
+	}
+	
+	public void transformES2015toES5(String es2015Source, String[] additionalPresets, Path target) {
+		try {
+			babelTransform(es2015Source, ES2015_TRANSFORM_OPTIONS, additionalPresets, target);
+		} catch (ScriptException | IOException e) {
+			throw new JSUtilsException("Can't transform ES2015", e);
+		}
+	}
 
 	public String transformJSXAndES2015toES5(String jsxAndES2015Source) {
 		return transformJSXAndES2015toES5(jsxAndES2015Source, null);
 	}
 	
 	public String transformJSXAndES2015toES5(String jsxAndES2015Source, String[] additionalPresets) {
-		String presets = presets(additionalPresets);
-		String command = JSX_AND_ES2015_TRANSFORM_COMMAND.replace(ADDITIONAL_PRESETS_PATTERN, presets);
-		babelBindings.put(INPUT_SCRIPT_VAR, jsxAndES2015Source);
 		try {
-			babelScriptEngine().getContext().setWriter(babelScriptEngineStringWriter);
-			return correctLinebreak(babelScriptEngine().eval(command, babelBindings).toString());
+			return babelTransform(jsxAndES2015Source, JSX_AND_ES2015_TRANSFORM_OPTIONS, additionalPresets);
 		} catch (ScriptException e) {
 			throw new JSUtilsException("Can't transform JSX or ES2015", e);
 		}
 	}
 	
+	public void transformJSXAndES2015toES5(String jsxAndES2015Source, String[] additionalPresets, Writer writer) {
+		try {
+			babelTransform(jsxAndES2015Source, JSX_AND_ES2015_TRANSFORM_OPTIONS, additionalPresets, writer);
+		} catch (ScriptException | IOException e) {
+			throw new JSUtilsException("Can't transform JSX or ES2015", e);
+		}
+	}
+	
+	public void transformJSXAndES2015toES5(String jsxAndES2015Source, String[] additionalPresets, Path target) {
+		try {
+			babelTransform(jsxAndES2015Source, JSX_AND_ES2015_TRANSFORM_OPTIONS, additionalPresets, target);
+		} catch (ScriptException | IOException e) {
+			throw new JSUtilsException("Can't transform JSX or ES2015", e);
+		}
+	}
+	
+	/*
+	 * Same text the single-call option templates expand to, so batch and
+	 * single transforms share result cache entries.
+	 */
+	private String babelOptions(String[] presets) {
+		StringBuilder sb = new StringBuilder("({ presets: [");
+		String[] batchPresets = (presets == null || presets.length == 0) ? DEFAULT_BATCH_PRESETS : presets;
+		for (int i = 0; i < batchPresets.length; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append("'").append(batchPresets[i]).append("'");
+		}
+		return sb.append("] })").toString();
+	}
+	
+	@FunctionalInterface
+	private static interface BatchWorker {
+		void run(ScriptEnginePool pool) throws ScriptException;
+	}
+	
+	/*
+	 * Every worker holds one engine while it drains the batch. Workers
+	 * beyond the size of the shared pool get engines from a pool created
+	 * for this batch only, and those engines are dropped with it. Returns
+	 * the first worker failure, if any.
+	 */
+	private Exception runBatchWorkers(int parallelism, String description, ScriptEnginePool pool,
+			PooledScriptEngineFactory factory, BatchWorker worker) {
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		int workers = parallelism;
+		if (workers < 1) return null;
+		if (workers == 1) {
+			try {
+				worker.run(pool);
+			} catch (ScriptException | RuntimeException e) {
+				failure.set(e);
+			}
+			return failure.get();
+		}
+		ScriptEnginePool batchPool = (workers <= pool.maxSize()) ? null :
+			new ScriptEnginePool(pool.name(), workers - pool.maxSize(), factory).metricsListener(metricsListener);
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < workers; i++) {
+				ScriptEnginePool workerPool = (i < pool.maxSize()) ? pool : batchPool;
+				futures.add(executor.submit(() -> {
+					try {
+						worker.run(workerPool);
+					} catch (ScriptException | RuntimeException e) {
+						failure.compareAndSet(null, e);
+					}
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JSUtilsException("Interrupted while "+description, e);
+		} catch (ExecutionException e) {
+			failure.compareAndSet(null, new JSUtilsException("Failed while "+description, e.getCause()));
+		} finally {
+			executor.shutdownNow();
+		}
+		return failure.get();
+	}
+	
+	private void transformBatch(ScriptEnginePool pool, List<TransformEntry> entries, TransformResult[] results,
+			AtomicInteger next, String options, TransformListener listener) throws ScriptException {
+		ScriptLibrary library = babelLibrary();
+		long timeoutMillis = timeoutMillis(Tool.BABEL);
+		CompiledScript call = library.compileCall(BABEL_TRANSFORM_FUNCTION, 2);
+		PooledScriptEngine engine = pool.borrow();
+		boolean abandoned = false;
+		try {
+			engine.writer(babelScriptEngineStringWriter);
+			Object compiledOptions = engine.eval(library.compile(options));
+			int index;
+			while (!abandoned && (index = next.getAndIncrement()) < entries.size()) {
+				TransformEntry entry = entries.get(index);
+				TransformResult result;
+				try {
+					checkInputLength(Tool.BABEL, pool.name(), entry.source);
+					result = new TransformResult(entry.path, measured(MetricsListener.BABEL_TRANSFORM, entry.source, () ->
+						cached(library, options, entry.source, () ->
+							correctLinebreak(pool.call(engine, e -> e.invoke(call, BABEL_TRANSFORM_FUNCTION, entry.source, compiledOptions),
+								timeoutMillis).toString()))), null);
+				} catch (ScriptException | RuntimeException e) {
+					abandoned = pool.isAbandoned(engine);
+					result = new TransformResult(entry.path, null,
+						new JSUtilsException("Can't transform "+entry.path, e));
+				}
+				results[index] = result;
+				if (listener != null) listener.transformed(result);
+			}
+		} finally {
+			pool.release(engine);
+		}
+		/* The engine that timed out is gone, go on with a fresh one */
+		if (abandoned && !Thread.currentThread().isInterrupted())
+			transformBatch(pool, entries, results, next, options, listener);
+	}
+	
+	public List<TransformResult> transformBatch(Collection<TransformEntry> entries, String[] presets, int parallelism) {
+		return transformBatch(entries, presets, parallelism, null);
+	}
+	
+	public List<TransformResult> transformBatch(Collection<TransformEntry> entries, String[] presets,
+			int parallelism, TransformListener listener) {
+		List<TransformEntry> batch = new ArrayList<>(entries);
+		TransformResult[] results = new TransformResult[batch.size()];
+		String options = babelOptions(presets);
+		AtomicInteger next = new AtomicInteger();
+		Exception failure = runBatchWorkers(Math.min(parallelism, batch.size()), "transforming batch",
+			babelEnginePool(), () -> babelLibrary().newInstance(),
+			pool -> transformBatch(pool, batch, results, next, options, listener));
+		for (int i = 0; i < results.length; i++)
+			if (results[i] == null) {
+				results[i] = new TransformResult(batch.get(i).path, null,
+					new JSUtilsException("Can't transform "+batch.get(i).path, failure));
+				if (listener != null) listener.transformed(results[i]);
+			}
+		return Arrays.asList(results);
+	}
+	
 	public Map<Path,Map<String,Path>> getES2015DependenciesMap(Path topModule) {
 		try {
 			return es2015DependenciesResolver.resolve(topModule);
@@ -309,33 +1008,286 @@ public class JSUtils {
 		}
 	}
 	
+	public DependencyGraph getES2015DependencyGraph(Path topModule) {
+		try {
+			return es2015DependenciesResolver.resolveGraph(topModule);
+		} catch (Exception e) {
+			throw new JSUtilsException("Can't resolve es2015 dependencies", e);
+		}
+	}
+	
+	/* Namespace imports and re-exports included, as Babel turns them into requires too */
+	DependencyGraph getES2015BundleGraph(Path topModule) {
+		try {
+			return configure(new ES2015ModuleImportResolver(es2015ResolverFileReader).reExports(true))
+				.resolveGraph(topModule);
+		} catch (Exception e) {
+			throw new JSUtilsException("Can't resolve es2015 dependencies", e);
+		}
+	}
+	
+	public DependencyGraph getCJSDependencyGraph(Path topModule) {
+		try {
+			return cJSDependenciesResolver.resolveGraph(topModule);
+		} catch (Exception e) {
+			throw new JSUtilsException("Can't resolve CJS dependencies", e);
+		}
+	}
+	
+	public IncrementalDependenciesResolver incrementalES2015DependenciesResolver(Path topModule) {
+		return new IncrementalDependenciesResolver(configure(new ES2015ModuleImportResolver(es2015ResolverFileReader)), topModule);
+	}
+	
+	public IncrementalDependenciesResolver incrementalCJSDependenciesResolver(Path topModule) {
+		return new IncrementalDependenciesResolver(configure(new CJSDependenciesResolver(cJSResolverFileReader)), topModule);
+	}
+	
+	public JSWatcher watchES2015Dependencies(Path topModule) {
+		return new JSWatcher(incrementalES2015DependenciesResolver(topModule));
+	}
+	
+	public JSWatcher watchCJSDependencies(Path topModule) {
+		return new JSWatcher(incrementalCJSDependenciesResolver(topModule));
+	}
+	
+	public SourceMappedCode transformWithSourceMap(String source, String sourceName, String[] presets) {
+		return transformWithSourceMap(source, sourceName, presets, null);
+	}
+	
+	public SourceMappedCode transformWithSourceMap(String source, String sourceName, String[] presets,
+			SourceMap inputSourceMap) {
+		String options = babelOptions(presets);
+		SourceMapBuilder builder = new SourceMapBuilder(sourceName, inputSourceMap);
+		if (inputSourceMap == null) builder.sourceContent(sourceName, source);
+		try {
+			return measured(MetricsListener.BABEL_TRANSFORM_WITH_SOURCE_MAP, source, () -> {
+				ScriptLibrary library = babelLibrary();
+				CompiledScript compiledOptions = library.compile(options);
+				CompiledScript call = library.compileCall(BABEL_SOURCE_MAP_TRANSFORM_FUNCTION, 4);
+				String code = execute(Tool.BABEL, babelEnginePool(), source, engine ->
+					engine.writer(babelScriptEngineStringWriter)
+						.invoke(call, BABEL_SOURCE_MAP_TRANSFORM_FUNCTION, source, engine.eval(compiledOptions),
+							sourceName, builder)).toString();
+				return new SourceMappedCode(correctLinebreak(code), builder.build());
+			});
+		} catch (ScriptException e) {
+			throw new JSUtilsException("Can't transform "+sourceName, e);
+		}
+	}
+	
+	public SourceMappedCode optimizeByUglifyJS2ScriptWithSourceMap(String source, String sourceName,
+			String jsOptionsObject) {
+		return optimizeByUglifyJS2ScriptWithSourceMap(source, sourceName, jsOptionsObject, null);
+	}
+	
+	public SourceMappedCode optimizeByUglifyJS2ScriptWithSourceMap(String source, String sourceName,
+			String jsOptionsObject, SourceMap inputSourceMap) {
+		String options = jsObject(jsOptionsObject);
+		SourceMapBuilder builder = new SourceMapBuilder(sourceName, inputSourceMap);
+		if (inputSourceMap == null) builder.sourceContent(sourceName, source);
+		try {
+			return measured(MetricsListener.UGLIFYJS2_MINIFY_WITH_SOURCE_MAP, source, () -> {
+				ScriptLibrary library = uglifyJS2Library();
+				CompiledScript compiledOptions = library.compile(options);
+				CompiledScript call = library.compileCall(UGLIFYJS2_SOURCE_MAP_MINIFY_FUNCTION, 4);
+				String code = execute(Tool.UGLIFYJS2, uglifyJS2EnginePool(), source, engine ->
+					engine.writer(uglifyJS2ScriptEngineStringWriter)
+						.invoke(call, UGLIFYJS2_SOURCE_MAP_MINIFY_FUNCTION, source, engine.eval(compiledOptions),
+							sourceName, builder)).toString();
+				return new SourceMappedCode(correctLinebreak(code), builder.build());
+			});
+		} catch (ScriptException e) {
+			throw new JSUtilsException("Can't optimize "+sourceName+" by uglifyJS", e);
+		}
+	}
+	
+	public JSBundler bundler() {
+		return new JSBundler(this);
+	}
+	
+	public JSPipeline pipeline() {
+		return new JSPipeline(this);
+	}
+	
+	JSPipeline.Result runPipeline(JSPipeline pipeline, String source) {
+		String babelOptions = pipeline.transformEnabled() ? babelOptions(pipeline.transformPresets()) : null;
+		String uglifyOptions = pipeline.minifyEnabled() ? jsObject(pipeline.minifyOptions()) : null;
+		String jshintOptions = pipeline.lintEnabled() ? jsObject(pipeline.lintOptions()) : null;
+		String jshintPredef = pipeline.lintEnabled() ? jsObject(pipeline.lintPredef()) : null;
+		String[] output = new String[2];
+		long[] timings = new long[3];
+		try {
+			return measured(MetricsListener.PIPELINE, source, () -> {
+				long start = System.nanoTime();
+				ScriptLibrary library = pipelineLibrary();
+				CompiledScript compiledBabelOptions = (babelOptions == null) ? null : library.compile(babelOptions);
+				CompiledScript compiledUglifyOptions = (uglifyOptions == null) ? null : library.compile(uglifyOptions);
+				CompiledScript compiledJSHintOptions = (jshintOptions == null) ? null : library.compile(jshintOptions);
+				CompiledScript compiledJSHintPredef = (jshintPredef == null) ? null : library.compile(jshintPredef);
+				CompiledScript call = library.compileCall(PIPELINE_FUNCTION, 7);
+				execute(Tool.PIPELINE, pipelineEnginePool(), source, engine -> engine.invoke(call, PIPELINE_FUNCTION, source,
+					(compiledBabelOptions == null) ? null : engine.eval(compiledBabelOptions),
+					(compiledUglifyOptions == null) ? null : engine.eval(compiledUglifyOptions),
+					(compiledJSHintOptions == null) ? null : engine.eval(compiledJSHintOptions),
+					(compiledJSHintPredef == null) ? null : engine.eval(compiledJSHintPredef),
+					output, timings));
+				String code = correctLinebreak(output[0]);
+				return new JSPipeline.Result(code, output[1], timings[0], timings[1], timings[2], System.nanoTime() - start);
+			});
+		} catch (ScriptException e) {
+			throw new JSUtilsException("Can't run pipeline", e);
+		}
+	}
+	
+	public ClosureCompiler closureCompiler() {
+		return new ClosureCompiler();
+	}
+	
 	public void runClousureCompilerOptimizer(String[] args) {
 		CommandLineRunner.main(args);
 	}
 	
 	public String optimizeByUglifyJS2Script(String source, String jsOptionsObject) {
-		uglifyJS2Bindings.put(INPUT_SCRIPT_VAR, source);
-		if (jsOptionsObject == null) jsOptionsObject = "{}"; 
+		String options = jsObject(jsOptionsObject);
 		try {
-			uglifyJS2ScriptEngine().getContext().setWriter(uglifyJS2ScriptEngineStringWriter);
-			return correctLinebreak(uglifyJS2ScriptEngine().eval("UglifyJS.minify(input, "+jsOptionsObject+");", uglifyJS2Bindings).toString());
+			ProcessWorkerPool workers = processWorkerPool;
+			if (workers != null) {
+				checkInputLength(Tool.UGLIFYJS2, UGLIFYJS2_LIBRARY, source);
+				return measured(MetricsListener.UGLIFYJS2_MINIFY, source, () -> cached(uglifyJS2Library(), options, source, () ->
+					workers.optimizeByUglifyJS2Script(workerConfiguration(), source, jsOptionsObject,
+						timeoutMillis(Tool.UGLIFYJS2))));
+			}
+			ScriptEnginePool pool = uglifyJS2EnginePool();
+			ScriptLibrary library = uglifyJS2Library();
+			CompiledScript compiledOptions = library.compile(options);
+			CompiledScript call = library.compileCall(UGLIFYJS2_MINIFY_FUNCTION, 2);
+			return measured(MetricsListener.UGLIFYJS2_MINIFY, source, () -> cached(library, options, source, () ->
+				correctLinebreak(execute(Tool.UGLIFYJS2, pool, source, engine ->
+					engine.writer(uglifyJS2ScriptEngineStringWriter)
+						.invoke(call, UGLIFYJS2_MINIFY_FUNCTION, source, engine.eval(compiledOptions))).toString())));
 		} catch (ScriptException e) {
 			e.printStackTrace();
 			throw new JSUtilsException("Can't optimize by uglifyJS", e);
 		}
 	}
 
+	public void optimizeByUglifyJS2Script(String source, String jsOptionsObject, Writer writer) {
+		try {
+			if (!isStreamable()) {
+				writer.write(optimizeByUglifyJS2Script(source, jsOptionsObject));
+				return;
+			}
+			ScriptLibrary library = uglifyJS2Library();
+			CompiledScript compiledOptions = library.compile(jsObject(jsOptionsObject));
+			CompiledScript call = library.compileCall(UGLIFYJS2_MINIFY_FUNCTION, 2);
+			correctLinebreak(measured(MetricsListener.UGLIFYJS2_MINIFY, source, () -> execute(Tool.UGLIFYJS2, uglifyJS2EnginePool(), source, engine ->
+				engine.writer(uglifyJS2ScriptEngineStringWriter)
+					.invoke(call, UGLIFYJS2_MINIFY_FUNCTION, source, engine.eval(compiledOptions))).toString()), writer);
+		} catch (ScriptException | IOException e) {
+			throw new JSUtilsException("Can't optimize by uglifyJS", e);
+		}
+	}
+	
+	public void optimizeByUglifyJS2Script(String source, String jsOptionsObject, Path target) {
+		try (Writer writer = newWriter(target, UTF_8)) {
+			optimizeByUglifyJS2Script(source, jsOptionsObject, writer);
+		} catch (IOException e) {
+			throw new JSUtilsException("Can't write "+target, e);
+		}
+	}
+
 	public String staticAnalyzeByJSHintScript(String source, String jsOptionsObject, String jsPredefObject) {
-		jshintBindings.put(INPUT_SCRIPT_VAR, source);
-		if (jsOptionsObject == null) jsOptionsObject = "{}"; 
-		if (jsPredefObject == null) jsPredefObject = "{}"; 
+		String options = jsObject(jsOptionsObject);
+		String predef = jsObject(jsPredefObject);
 		try {
-			jshintScriptEngine().getContext().setWriter(jshintScriptEngineStringWriter);
-			jshintScriptEngine().eval("JSHINT(input, "+jsOptionsObject+", "+jsPredefObject+");", jshintBindings);
-			return jshintScriptEngine().eval("jshintReporter(JSHINT.data(), {extendedReport : true})", jshintBindings).toString();
+			ProcessWorkerPool workers = processWorkerPool;
+			if (workers != null) {
+				checkInputLength(Tool.JSHINT, JSHINT_LIBRARY, source);
+				return measured(MetricsListener.JSHINT_ANALYZE, source, () ->
+					workers.staticAnalyzeByJSHintScript(workerConfiguration(), source, jsOptionsObject, jsPredefObject,
+						timeoutMillis(Tool.JSHINT)));
+			}
+			ScriptLibrary library = jshintLibrary();
+			CompiledScript compiledOptions = library.compile(options);
+			CompiledScript compiledPredef = library.compile(predef);
+			CompiledScript call = library.compileCall(JSHINT_ANALYZE_FUNCTION, 3);
+			return measured(MetricsListener.JSHINT_ANALYZE, source, () -> execute(Tool.JSHINT, jshintEnginePool(), source, engine ->
+				engine.writer(jshintScriptEngineStringWriter)
+					.invoke(call, JSHINT_ANALYZE_FUNCTION, source,
+						engine.eval(compiledOptions), engine.eval(compiledPredef))).toString());
 		} catch (ScriptException e) {
 			e.printStackTrace();
 			throw new JSUtilsException("Can't analyze by jshint", e);
 		}
 	}
+	
+	public JSHintResult analyzeByJSHint(String source, String jsOptionsObject, String jsPredefObject) {
+		String options = jsObject(jsOptionsObject);
+		String predef = jsObject(jsPredefObject);
+		JSHintResult.Collector collector = new JSHintResult.Collector();
+		try {
+			ScriptLibrary library = jshintLibrary();
+			CompiledScript compiledOptions = library.compile(options);
+			CompiledScript compiledPredef = library.compile(predef);
+			CompiledScript call = library.compileCall(JSHINT_COLLECT_FUNCTION, 4);
+			measured(MetricsListener.JSHINT_ANALYZE, source, () -> execute(Tool.JSHINT, jshintEnginePool(), source, engine ->
+				engine.writer(jshintScriptEngineStringWriter)
+					.invoke(call, JSHINT_COLLECT_FUNCTION, source,
+						engine.eval(compiledOptions), engine.eval(compiledPredef), collector)));
+		} catch (ScriptException e) {
+			throw new JSUtilsException("Can't analyze by jshint", e);
+		}
+		return collector.build(null);
+	}
+	
+	private void analyzeByJSHint(ScriptEnginePool pool, List<Map.Entry<Path,String>> sources, JSHintResult[] results,
+			AtomicInteger next, String options, String predef) throws ScriptException {
+		long timeoutMillis = timeoutMillis(Tool.JSHINT);
+		ScriptLibrary library = jshintLibrary();
+		CompiledScript call = library.compileCall(JSHINT_COLLECT_FUNCTION, 4);
+		PooledScriptEngine engine = pool.borrow();
+		boolean abandoned = false;
+		try {
+			engine.writer(jshintScriptEngineStringWriter);
+			Object compiledOptions = engine.eval(library.compile(options));
+			Object compiledPredef = engine.eval(library.compile(predef));
+			int index;
+			while (!abandoned && (index = next.getAndIncrement()) < sources.size()) {
+				Map.Entry<Path,String> source = sources.get(index);
+				JSHintResult.Collector collector = new JSHintResult.Collector();
+				try {
+					checkInputLength(Tool.JSHINT, pool.name(), source.getValue());
+					measured(MetricsListener.JSHINT_ANALYZE, source.getValue(), () -> pool.call(engine, e ->
+						e.invoke(call, JSHINT_COLLECT_FUNCTION, source.getValue(), compiledOptions, compiledPredef, collector),
+						timeoutMillis));
+					results[index] = collector.build(source.getKey());
+				} catch (ScriptException | RuntimeException e) {
+					abandoned = pool.isAbandoned(engine);
+					results[index] = JSHintResult.failed(source.getKey(),
+						new JSUtilsException("Can't analyze "+source.getKey()+" by jshint", e));
+				}
+			}
+		} finally {
+			pool.release(engine);
+		}
+		if (abandoned && !Thread.currentThread().isInterrupted())
+			analyzeByJSHint(pool, sources, results, next, options, predef);
+	}
+	
+	public JSHintReport analyzeByJSHint(Map<Path,String> sources, String jsOptionsObject, String jsPredefObject,
+			int parallelism) {
+		List<Map.Entry<Path,String>> batch = new ArrayList<>(sources.entrySet());
+		JSHintResult[] results = new JSHintResult[batch.size()];
+		String options = jsObject(jsOptionsObject);
+		String predef = jsObject(jsPredefObject);
+		AtomicInteger next = new AtomicInteger();
+		Exception failure = runBatchWorkers(Math.min(parallelism, batch.size()), "analyzing batch by jshint",
+			jshintEnginePool(), () -> jshintLibrary().newInstance(),
+			pool -> analyzeByJSHint(pool, batch, results, next, options, predef));
+		for (int i = 0; i < results.length; i++)
+			if (results[i] == null)
+				results[i] = JSHintResult.failed(batch.get(i).getKey(),
+					new JSUtilsException("Can't analyze "+batch.get(i).getKey()+" by jshint", failure));
+		return new JSHintReport(Arrays.asList(results));
+	}
 }
@@ -0,0 +1,325 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import nikoladasm.javascript.utils.dependencies.DependencyGraph;
+import nikoladasm.javascript.utils.dependencies.IncrementalDependenciesResolver;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+public class JSWatcher implements Closeable {
+
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+	@FunctionalInterface
+	public static interface ModuleProcessor {
+		void process(Path module) throws Exception;
+	}
+
+	public static interface ChangeListener {
+		void changed(ChangeSet changeSet);
+
+		default void failed(Exception e) {}
+	}
+
+	public static class ChangeSet {
+
+		public final DependencyGraph graph;
+		public final Set<Path> changedModules;
+		public final Set<Path> addedModules;
+		public final Set<Path> removedModules;
+		public final Set<Path> affectedModules;
+		public final Set<Path> processedModules;
+		public final Map<Path,Exception> errors;
+
+		private ChangeSet(DependencyGraph graph, Set<Path> changedModules, Set<Path> addedModules,
+				Set<Path> removedModules, Set<Path> affectedModules, Set<Path> processedModules,
+				Map<Path,Exception> errors) {
+			this.graph = graph;
+			this.changedModules = Collections.unmodifiableSet(changedModules);
+			this.addedModules = Collections.unmodifiableSet(addedModules);
+			this.removedModules = Collections.unmodifiableSet(removedModules);
+			this.affectedModules = Collections.unmodifiableSet(affectedModules);
+			this.processedModules = Collections.unmodifiableSet(processedModules);
+			this.errors = Collections.unmodifiableMap(errors);
+		}
+	}
+
+	private final IncrementalDependenciesResolver resolver;
+	private final Map<WatchKey,Path> watchKeys = new HashMap<>();
+	private final Set<Path> watchedDirectories = new HashSet<>();
+	private long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+	private boolean processDependents;
+	private ModuleProcessor moduleProcessor;
+	private ChangeListener changeListener;
+	private WatchService watchService;
+	private Thread watchThread;
+	private volatile boolean running;
+	private volatile DependencyGraph graph;
+	private boolean resolveFailed;
+
+	public JSWatcher(IncrementalDependenciesResolver resolver) {
+		this.resolver = resolver;
+	}
+
+	public JSWatcher debounceMillis(long debounceMillis) {
+		this.debounceMillis = debounceMillis;
+		return this;
+	}
+
+	public long debounceMillis() {
+		return debounceMillis;
+	}
+
+	public JSWatcher processDependents(boolean processDependents) {
+		this.processDependents = processDependents;
+		return this;
+	}
+
+	public boolean processDependents() {
+		return processDependents;
+	}
+
+	public JSWatcher moduleProcessor(ModuleProcessor moduleProcessor) {
+		this.moduleProcessor = moduleProcessor;
+		return this;
+	}
+
+	public ModuleProcessor moduleProcessor() {
+		return moduleProcessor;
+	}
+
+	public JSWatcher changeListener(ChangeListener changeListener) {
+		this.changeListener = changeListener;
+		return this;
+	}
+
+	public ChangeListener changeListener() {
+		return changeListener;
+	}
+
+	/*
+	 * Snapshot of the last resolution; the resolver's own graph keeps
+	 * changing on the watch thread.
+	 */
+	public DependencyGraph graph() {
+		return graph;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public synchronized JSWatcher start() {
+		if (running) return this;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			throw new JSUtilsException("Can't create watch service", e);
+		}
+		running = true;
+		processChanges(Collections.emptySet(), true);
+		watchThread = new Thread(this::watch, "js-watcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+		return this;
+	}
+
+	@Override
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			if (!running) return;
+			running = false;
+			thread = watchThread;
+			try {
+				watchService.close();
+			} catch (IOException e) {}
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private boolean collect(WatchKey key, Set<Path> changedPaths) {
+		boolean overflow = false;
+		Path directory;
+		synchronized (this) {
+			directory = watchKeys.get(key);
+		}
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				overflow = true;
+			} else if (directory != null) {
+				changedPaths.add(directory.resolve((Path) event.context()).toAbsolutePath().normalize());
+			}
+		}
+		if (!key.reset()) {
+			synchronized (this) {
+				watchedDirectories.remove(watchKeys.remove(key));
+			}
+		}
+		return overflow;
+	}
+
+	private void watch() {
+		try {
+			while (running) {
+				Set<Path> changedPaths = new LinkedHashSet<>();
+				boolean overflow = collect(watchService.take(), changedPaths);
+				WatchKey key;
+				while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null)
+					overflow |= collect(key, changedPaths);
+				if (running) processChanges(changedPaths, overflow);
+			}
+		} catch (ClosedWatchServiceException e) {
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Watches the directories holding modules of the graph and cancels the
+	 * keys of those that no longer hold any; true when a directory was
+	 * added.
+	 */
+	private boolean updateDirectories(DependencyGraph graph) {
+		Set<Path> directories = new HashSet<>();
+		for (Path module : graph.modules()) {
+			Path directory = module.getParent();
+			if (directory != null) directories.add(directory);
+		}
+		for (Iterator<Map.Entry<WatchKey,Path>> iterator = watchKeys.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<WatchKey,Path> entry = iterator.next();
+			if (directories.contains(entry.getValue())) continue;
+			entry.getKey().cancel();
+			watchedDirectories.remove(entry.getValue());
+			iterator.remove();
+		}
+		boolean added = false;
+		for (Path directory : directories) {
+			if (watchedDirectories.contains(directory) || !Files.isDirectory(directory))
+				continue;
+			try {
+				watchKeys.put(directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), directory);
+				watchedDirectories.add(directory);
+				added = true;
+			} catch (IOException e) {
+				if (changeListener != null) changeListener.failed(e);
+			}
+		}
+		return added;
+	}
+
+	public synchronized ChangeSet processChanges(Collection<Path> changedPaths) {
+		return processChanges(changedPaths, false);
+	}
+
+	private synchronized ChangeSet processChanges(Collection<Path> changedPaths, boolean rescan) {
+		DependencyGraph previous = resolver.graph();
+		Set<Path> before = (previous == null) ?
+			Collections.emptySet() : new HashSet<>(previous.modules());
+		Set<Path> changedModules = new LinkedHashSet<>();
+		for (Path path : changedPaths)
+			if (before.contains(path)) changedModules.add(path);
+		resolver.invalidatePaths(changedPaths);
+		Set<Path> importers = resolver.importersOf(changedPaths);
+		importers.removeAll(changedModules);
+		DependencyGraph graph;
+		try {
+			if (rescan || resolveFailed || previous == null) {
+				changedModules.addAll(resolver.changedModules());
+				graph = resolver.resolve();
+			}
+			else {
+				Set<Path> modulesToUpdate = new LinkedHashSet<>(changedModules);
+				modulesToUpdate.addAll(importers);
+				graph = resolver.update(modulesToUpdate);
+			}
+			graph = graph.snapshot();
+			this.graph = graph;
+			resolveFailed = false;
+		} catch (Exception e) {
+			resolveFailed = true;
+			if (changeListener != null) changeListener.failed(e);
+			return null;
+		}
+		changedModules.retainAll(graph.modules());
+		Set<Path> addedModules = new LinkedHashSet<>(graph.modules());
+		addedModules.removeAll(before);
+		Set<Path> removedModules = new LinkedHashSet<>(before);
+		removedModules.removeAll(graph.modules());
+		Set<Path> affectedModules = new LinkedHashSet<>(changedModules);
+		affectedModules.addAll(addedModules);
+		importers.retainAll(graph.modules());
+		affectedModules.addAll(importers);
+		for (Path module : changedModules)
+			affectedModules.addAll(graph.transitiveDependents(module));
+		for (Path module : importers)
+			affectedModules.addAll(graph.transitiveDependents(module));
+		Set<Path> processedModules = new LinkedHashSet<>(changedModules);
+		processedModules.addAll(addedModules);
+		if (processDependents) processedModules = affectedModules;
+		Map<Path,Exception> errors = new LinkedHashMap<>();
+		if (moduleProcessor != null) {
+			for (Path module : processedModules) {
+				try {
+					moduleProcessor.process(module);
+				} catch (Exception e) {
+					errors.put(module, e);
+				}
+			}
+		}
+		boolean directoriesAdded = watchService != null && running && updateDirectories(graph);
+		ChangeSet changeSet = new ChangeSet(graph, changedModules, addedModules,
+			removedModules, affectedModules, processedModules, errors);
+		if (changeListener != null) changeListener.changed(changeSet);
+		/* Modules edited after they were read but before their directory was watched */
+		if (directoriesAdded) {
+			List<Path> missedModules = resolver.changedModules();
+			if (!missedModules.isEmpty()) processChanges(missedModules, false);
+		}
+		return changeSet;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Histogram metrics published as MXBeans, one per metric, registered when
+ * the metric is first recorded and removed by close(). A metric that
+ * can't be registered, for example because its name is taken by an MBean
+ * of someone else, is logged and still recorded, just not published.
+ */
+public class JmxMetricsListener extends HistogramMetricsListener implements AutoCloseable {
+
+	public static final String DEFAULT_DOMAIN = "nikoladasm.javascript.utils";
+
+	private static final Logger LOGGER = Logger.getLogger(JmxMetricsListener.class.getName());
+
+	public static interface HistogramMXBean {
+		long getCount();
+		long getMin();
+		long getMax();
+		double getMean();
+		long get50thPercentile();
+		long get95thPercentile();
+		long get99thPercentile();
+	}
+
+	public static interface CounterMXBean {
+		long getCount();
+	}
+
+	private static class HistogramBean implements HistogramMXBean {
+
+		private final Histogram histogram;
+
+		private HistogramBean(Histogram histogram) {
+			this.histogram = histogram;
+		}
+
+		@Override
+		public long getCount() {
+			return histogram.count();
+		}
+
+		@Override
+		public long getMin() {
+			return histogram.min();
+		}
+
+		@Override
+		public long getMax() {
+			return histogram.max();
+		}
+
+		@Override
+		public double getMean() {
+			return histogram.mean();
+		}
+
+		@Override
+		public long get50thPercentile() {
+			return histogram.percentile(0.5);
+		}
+
+		@Override
+		public long get95thPercentile() {
+			return histogram.percentile(0.95);
+		}
+
+		@Override
+		public long get99thPercentile() {
+			return histogram.percentile(0.99);
+		}
+	}
+
+	private static class CounterBean implements CounterMXBean {
+
+		private final Counter counter;
+
+		private CounterBean(Counter counter) {
+			this.counter = counter;
+		}
+
+		@Override
+		public long getCount() {
+			return counter.count();
+		}
+	}
+
+	private final MBeanServer server;
+	private final String domain;
+	private final Map<ObjectName,Object> registered = new ConcurrentHashMap<>();
+
+	public JmxMetricsListener() {
+		this(ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+	}
+
+	public JmxMetricsListener(MBeanServer server, String domain) {
+		this.server = server;
+		this.domain = domain;
+	}
+
+	private void register(String type, String name, Object bean) {
+		try {
+			ObjectName objectName = new ObjectName(domain+":type="+type+",name="+ObjectName.quote(name));
+			server.registerMBean(bean, objectName);
+			registered.put(objectName, bean);
+		} catch (JMException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Can't register "+name+" metric", e);
+		}
+	}
+
+	@Override
+	protected void histogramCreated(String name, Histogram histogram) {
+		register("Histogram", name, new HistogramBean(histogram));
+	}
+
+	@Override
+	protected void counterCreated(String name, Counter counter) {
+		register("Counter", name, new CounterBean(counter));
+	}
+
+	@Override
+	public void close() {
+		for (ObjectName objectName : registered.keySet()) {
+			try {
+				server.unregisterMBean(objectName);
+			} catch (JMException e) {}
+		}
+		registered.clear();
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * Single pass line break normalization over any char sequence (String,
+ * StringBuilder, CharBuffer), either into a new String or straight into a
+ * Writer. When nothing needs to change the source is returned as is.
+ */
+public final class LineBreaks {
+
+	private LineBreaks() {
+	}
+
+	private static boolean isLineBreak(char c, boolean unicode) {
+		if (c == '\n' || c == '\r') return true;
+		return unicode && (c == '\u000B' || c == '\u000C' || c == '\u0085' || c == '\u2028' || c == '\u2029');
+	}
+
+	/*
+	 * Length of the source without its trailing line breaks, all of them
+	 * when collapsing, otherwise only the last one (\r\n counts as one).
+	 */
+	private static int contentEnd(CharSequence source, boolean unicode, boolean collapse) {
+		int end = source.length();
+		if (collapse) {
+			while (end > 0 && isLineBreak(source.charAt(end - 1), unicode)) end--;
+			return end;
+		}
+		if (end > 0 && isLineBreak(source.charAt(end - 1), unicode)) {
+			end--;
+			if (source.charAt(end) == '\n' && end > 0 && source.charAt(end - 1) == '\r') end--;
+		}
+		return end;
+	}
+
+	private static boolean isNormalized(CharSequence source, int end, String lineSeparator, boolean unicode) {
+		if (source.length() != end + lineSeparator.length()) return false;
+		for (int i = 0; i < lineSeparator.length(); i++)
+			if (source.charAt(end + i) != lineSeparator.charAt(i)) return false;
+		for (int i = 0; i < end; i++) {
+			char c = source.charAt(i);
+			if (!isLineBreak(c, unicode)) continue;
+			if (!lineSeparator.contentEquals(source.subSequence(i, Math.min(end, i + lineSeparator.length()))))
+				return false;
+			i += lineSeparator.length() - 1;
+		}
+		return true;
+	}
+
+	private static void append(CharSequence source, int end, String lineSeparator, boolean unicode,
+			Appendable out) throws IOException {
+		int start = 0;
+		for (int i = 0; i < end; i++) {
+			char c = source.charAt(i);
+			if (!isLineBreak(c, unicode)) continue;
+			out.append(source, start, i).append(lineSeparator);
+			if (c == '\r' && i + 1 < end && source.charAt(i + 1) == '\n') i++;
+			start = i + 1;
+		}
+		out.append(source, start, end).append(lineSeparator);
+	}
+
+	private static String normalize(CharSequence source, String lineSeparator, boolean unicode, boolean collapse) {
+		int end = contentEnd(source, unicode, collapse);
+		if (source.length() == 0) return collapse ? lineSeparator : "";
+		if (collapse && end == 0) return "";
+		if (isNormalized(source, end, lineSeparator, unicode)) return source.toString();
+		StringBuilder sb = new StringBuilder(end + lineSeparator.length() + 16);
+		try {
+			append(source, end, lineSeparator, unicode, sb);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Script output: every \R line break becomes the separator, trailing
+	 * empty lines are dropped and the last line is terminated, same as
+	 * splitting on \R and joining the lines back.
+	 */
+	public static String normalize(CharSequence source, String lineSeparator) {
+		return normalize(source, lineSeparator, true, true);
+	}
+
+	public static void normalize(CharSequence source, String lineSeparator, Writer writer) throws IOException {
+		int end = contentEnd(source, true, true);
+		if (source.length() == 0) {
+			writer.write(lineSeparator);
+		} else if (end > 0) {
+			append(source, end, lineSeparator, true, writer);
+		}
+	}
+
+	/*
+	 * File content: \n, \r and \r\n become the separator and every line is
+	 * terminated, same as reading all lines and joining them back.
+	 */
+	public static String normalizeLines(CharSequence source, String lineSeparator) {
+		return normalize(source, lineSeparator, false, false);
+	}
+}
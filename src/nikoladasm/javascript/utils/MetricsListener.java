@@ -0,0 +1,54 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.nio.file.Path;
+
+/*
+ * Instrumentation callbacks. Nothing is measured unless a listener is set,
+ * so a disabled listener costs a null check per operation. Lengths are in
+ * chars, -1 when the output went to a sink. Callbacks come from any
+ * thread and must not block.
+ */
+public interface MetricsListener {
+
+	String BABEL_TRANSFORM = "babel.transform";
+	String BABEL_TRANSFORM_WITH_SOURCE_MAP = "babel.transformWithSourceMap";
+	String UGLIFYJS2_MINIFY = "uglifyJS2.minify";
+	String UGLIFYJS2_MINIFY_WITH_SOURCE_MAP = "uglifyJS2.minifyWithSourceMap";
+	String JSHINT_ANALYZE = "jshint.analyze";
+	String PIPELINE = "pipeline";
+	String MEMORY_TRANSFORM_CACHE = "cache.memory";
+	String PERSISTENT_TRANSFORM_CACHE = "cache.persistent";
+	String PATH_RESOLUTION_CACHE = "resolver.paths";
+	String MODULE_SPECIFIERS_CACHE = "resolver.specifiers";
+
+	default void operation(String operation, long nanos, long inputLength, long outputLength, boolean failed) {}
+
+	default void engineCreated(String pool, long nanos) {}
+
+	default void engineWaited(String pool, long nanos) {}
+
+	default void cacheAccessed(String cache, boolean hit) {}
+
+	default void fileRead(Path path, long nanos, long length) {}
+
+	default void moduleParsed(Path path, long nanos, boolean scanned) {}
+
+	default void fileProbed(Path path) {}
+}
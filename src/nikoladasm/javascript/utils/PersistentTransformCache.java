@@ -0,0 +1,247 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+
+public class PersistentTransformCache {
+
+	public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+	private static final String ENTRY_EXTENSION = ".js";
+	private static final String TEMP_FILE_PREFIX = ".";
+	private static final String TEMP_FILE_EXTENSION = ".tmp";
+	private static final double PRUNE_RATIO = 0.9;
+	private static final long STALE_TEMP_FILE_MILLIS = 60L * 60 * 1000;
+	private static final Logger LOGGER = Logger.getLogger(PersistentTransformCache.class.getName());
+
+	private static class Entry {
+
+		private final Path path;
+		private final long size;
+		private final long lastModified;
+
+		private Entry(Path path, BasicFileAttributes attributes) {
+			this.path = path;
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+		}
+	}
+
+	private final Path directory;
+	private final long maxSize;
+	private final AtomicLong size = new AtomicLong(-1);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public PersistentTransformCache(Path directory) {
+		this(directory, DEFAULT_MAX_SIZE);
+	}
+
+	public PersistentTransformCache(Path directory, long maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Invalid cache size "+maxSize);
+		this.directory = directory.toAbsolutePath().normalize();
+		this.maxSize = maxSize;
+		try {
+			Files.createDirectories(this.directory);
+		} catch (IOException e) {
+			throw new JSUtilsException("Can't create cache directory "+this.directory, e);
+		}
+	}
+
+	public Path directory() {
+		return directory;
+	}
+
+	public long maxSize() {
+		return maxSize;
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	private Path entryPath(String tool, String libraryHash, String options, String contentHash) {
+		String key = TransformResultCache.contentHash(
+			tool+'\0'+libraryHash+'\0'+((options == null) ? "" : options)+'\0'+contentHash);
+		return directory.resolve(key.substring(0, 2)).resolve(key+ENTRY_EXTENSION);
+	}
+
+	public String get(String tool, String libraryHash, String options, String contentHash) {
+		Path path = entryPath(tool, libraryHash, options, contentHash);
+		try {
+			String result = new String(Files.readAllBytes(path), UTF_8);
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+			hits.incrementAndGet();
+			return result;
+		} catch (IOException e) {
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	public void put(String tool, String libraryHash, String options, String contentHash, String result) {
+		Path path = entryPath(tool, libraryHash, options, contentHash);
+		byte[] content = result.getBytes(UTF_8);
+		Path tempFile = null;
+		long replacedSize = 0;
+		size();
+		try {
+			Files.createDirectories(path.getParent());
+			tempFile = Files.createTempFile(path.getParent(), TEMP_FILE_PREFIX, TEMP_FILE_EXTENSION);
+			Files.write(tempFile, content);
+			try {
+				replacedSize = Files.size(path);
+			} catch (NoSuchFileException e) {}
+			try {
+				Files.move(tempFile, path, ATOMIC_MOVE, REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, path, REPLACE_EXISTING);
+			}
+			tempFile = null;
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Can't write cache entry "+path, e);
+			return;
+		} finally {
+			if (tempFile != null) delete(tempFile);
+		}
+		if (size.addAndGet(content.length - replacedSize) > maxSize) {
+			try {
+				prune();
+			} catch (JSUtilsException e) {
+				LOGGER.log(Level.WARNING, e.getMessage(), e.getCause());
+			}
+		}
+	}
+
+	private static boolean delete(Path path) {
+		try {
+			Files.deleteIfExists(path);
+			return true;
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Can't delete cache file "+path, e);
+			return false;
+		}
+	}
+
+	private List<Entry> entries() throws IOException {
+		return entries(null);
+	}
+
+	/*
+	 * Temp files left behind by writers that died before the move are
+	 * collected into staleTempFiles once they are old enough not to
+	 * belong to a write still in progress. Files removed by another
+	 * process while walking end the walk with an UncheckedIOException,
+	 * reported as its IOException.
+	 */
+	private List<Entry> entries(List<Path> staleTempFiles) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		long staleBefore = System.currentTimeMillis() - STALE_TEMP_FILE_MILLIS;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.forEach(path -> {
+				try {
+					BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+					if (!attributes.isRegularFile()) return;
+					String fileName = path.getFileName().toString();
+					if (fileName.endsWith(ENTRY_EXTENSION))
+						entries.add(new Entry(path, attributes));
+					else if (staleTempFiles != null && fileName.startsWith(TEMP_FILE_PREFIX) &&
+							fileName.endsWith(TEMP_FILE_EXTENSION) &&
+							attributes.lastModifiedTime().toMillis() < staleBefore)
+						staleTempFiles.add(path);
+				} catch (IOException e) {}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return entries;
+	}
+
+	public long size() {
+		long current = size.get();
+		if (current >= 0) return current;
+		try {
+			long total = 0;
+			for (Entry entry : entries())
+				total += entry.size;
+			size.compareAndSet(-1, total);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Can't measure cache directory "+directory, e);
+			size.compareAndSet(-1, 0);
+		}
+		return size.get();
+	}
+
+	public synchronized void prune() {
+		try {
+			List<Path> staleTempFiles = new ArrayList<>();
+			List<Entry> entries = entries(staleTempFiles);
+			for (Path tempFile : staleTempFiles)
+				delete(tempFile);
+			long total = 0;
+			for (Entry entry : entries)
+				total += entry.size;
+			long target = (long) (maxSize * PRUNE_RATIO);
+			if (total > target) {
+				entries.sort((e1, e2) -> Long.compare(e1.lastModified, e2.lastModified));
+				for (Entry entry : entries) {
+					if (total <= target) break;
+					if (delete(entry.path)) total -= entry.size;
+				}
+			}
+			size.set(total);
+		} catch (IOException e) {
+			throw new JSUtilsException("Can't prune cache directory "+directory, e);
+		}
+	}
+
+	public synchronized void clear() {
+		try {
+			for (Entry entry : entries())
+				Files.deleteIfExists(entry.path);
+			size.set(0);
+			hits.set(0);
+			misses.set(0);
+		} catch (IOException e) {
+			throw new JSUtilsException("Can't clear cache directory "+directory, e);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import java.io.Writer;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+
+public class PooledScriptEngine {
+
+	private final ScriptLibrary library;
+	private final ScriptContext context;
+
+	public PooledScriptEngine(ScriptLibrary library, ScriptContext context) {
+		this.library = library;
+		this.context = context;
+	}
+
+	public ScriptLibrary library() {
+		return library;
+	}
+
+	public ScriptContext context() {
+		return context;
+	}
+
+	public PooledScriptEngine writer(Writer writer) {
+		context.setWriter(writer);
+		return this;
+	}
+
+	public Object eval(String script) throws ScriptException {
+		return library.engine().eval(script, context);
+	}
+
+	public Object evalCompiled(String script) throws ScriptException {
+		return library.compile(script).eval(context);
+	}
+
+	public Object eval(CompiledScript script) throws ScriptException {
+		return script.eval(context);
+	}
+
+	public Object invoke(String function, Object... args) throws ScriptException {
+		return library.runtime().invoke(library, context, function, args);
+	}
+
+	public Object invoke(CompiledScript call, String function, Object... args) throws ScriptException {
+		return library.runtime().invoke(library, context, call, function, args);
+	}
+
+	public boolean cancel() {
+		return library.runtime().cancel(context);
+	}
+}
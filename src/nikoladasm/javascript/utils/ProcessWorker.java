@@ -0,0 +1,148 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Child JVM side of ProcessWorkerPool. Requests come on stdin and
+ * responses go to stdout, one at a time: an opcode byte followed by
+ * length prefixed UTF-8 strings (-1 for null), answered by a status byte,
+ * the result or error message and the used heap after the job. Anything
+ * the tools print goes to stderr so it can't corrupt the stream. The
+ * engine setup of the parent JSUtils comes as command line arguments.
+ */
+public final class ProcessWorker {
+
+	static final String WARM_UP_ARGUMENT = "--warm-up";
+	static final String SCRIPT_RUNTIME_ARGUMENT = "--script-runtime=";
+	static final String EXTERNAL_BABEL_SCRIPT_PATH_ARGUMENT = "--external-babel-script-path=";
+
+	static final int READY = 0x7F;
+	static final int BABEL_TRANSFORM = 1;
+	static final int UGLIFYJS2_MINIFY = 2;
+	static final int JSHINT_ANALYZE = 3;
+	static final int OK = 0;
+	static final int ERROR = 1;
+
+	private ProcessWorker() {
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static String execute(JSUtils jsUtils, int opcode, DataInputStream in) throws Exception {
+		switch (opcode) {
+			case BABEL_TRANSFORM : {
+				String options = readString(in);
+				return jsUtils.babelTransform(readString(in), options);
+			}
+			case UGLIFYJS2_MINIFY : {
+				String options = readString(in);
+				return jsUtils.optimizeByUglifyJS2Script(readString(in), options);
+			}
+			case JSHINT_ANALYZE : {
+				String options = readString(in);
+				String predef = readString(in);
+				return jsUtils.staticAnalyzeByJSHintScript(readString(in), options, predef);
+			}
+			default : throw new IOException("Unknown opcode "+opcode);
+		}
+	}
+
+	private static JSUtils configure(String[] args) {
+		JSUtils jsUtils = new JSUtils();
+		for (String arg : args) {
+			if (arg.startsWith(SCRIPT_RUNTIME_ARGUMENT))
+				jsUtils.scriptRuntime(ScriptRuntime.runtime(arg.substring(SCRIPT_RUNTIME_ARGUMENT.length())));
+			else if (arg.startsWith(EXTERNAL_BABEL_SCRIPT_PATH_ARGUMENT))
+				jsUtils.externalBabelScriptPath(arg.substring(EXTERNAL_BABEL_SCRIPT_PATH_ARGUMENT.length()));
+		}
+		if (Arrays.asList(args).contains(WARM_UP_ARGUMENT)) jsUtils.warmUp();
+		return jsUtils;
+	}
+
+	public static void main(String[] args) throws IOException {
+		DataOutputStream out = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		System.setOut(System.err);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		JSUtils jsUtils = configure(args);
+		out.write(READY);
+		out.flush();
+		int opcode;
+		while ((opcode = in.read()) >= 0) {
+			String result;
+			try {
+				result = execute(jsUtils, opcode, in);
+			} catch (EOFException e) {
+				break;
+			} catch (IOException e) {
+				throw e;
+			} catch (OutOfMemoryError e) {
+				out.write(ERROR);
+				writeString(out, e.toString());
+				out.writeLong(usedHeap());
+				out.flush();
+				System.exit(1);
+				return;
+			} catch (Exception e) {
+				Throwable cause = (e.getCause() == null) ? e : e.getCause();
+				out.write(ERROR);
+				writeString(out, e.getMessage()+": "+cause);
+				out.writeLong(usedHeap());
+				out.flush();
+				continue;
+			}
+			out.write(OK);
+			writeString(out, result);
+			out.writeLong(usedHeap());
+			out.flush();
+		}
+	}
+}
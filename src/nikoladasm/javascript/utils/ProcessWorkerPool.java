@@ -0,0 +1,458 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.ScriptException;
+
+/*
+ * Runs babel, UglifyJS2 and JSHint in child JVMs, so their heaps, GC and
+ * failures stay out of the calling JVM. Each worker runs one job at a time
+ * and a job goes to the worker with the fewest running and queued jobs.
+ * A worker is replaced after maxJobsPerWorker jobs, when its used heap
+ * goes past maxHeapUsage, or when its process dies; a replaced worker
+ * finishes the jobs already queued on it first. When the process dies only
+ * the job it was running fails, and the jobs still queued on it go to
+ * another worker. Workers are started with the engine setup of the
+ * JSUtils that sends the job, and every distinct setup gets its own set of
+ * size workers. Processes are forked outside the pool lock.
+ */
+public class ProcessWorkerPool implements AutoCloseable {
+
+	public static final int DEFAULT_MAX_JOBS_PER_WORKER = 1000;
+	public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 5000;
+
+	private static final ScheduledExecutorService TIMEOUT_EXECUTOR;
+
+	static {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "js-utils-worker-timeout");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		TIMEOUT_EXECUTOR = executor;
+	}
+
+	/*
+	 * Thrown to a job that was queued on a worker whose process died while
+	 * running an earlier job, so that it goes to another worker.
+	 */
+	private static class StaleWorkerException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private StaleWorkerException() {
+			super(null, null, false, false);
+		}
+	}
+
+	private class Worker {
+
+		private final List<String> configuration;
+		private final List<String> command;
+		private final Object launchLock = new Object();
+		private Process process;
+		private DataOutputStream out;
+		private DataInputStream in;
+		private IOException launchFailure;
+		private boolean closing;
+		private boolean ready;
+		private volatile boolean broken;
+		private int load;
+		private int jobs;
+		private long usedHeap;
+		private volatile boolean retired;
+		private volatile boolean timedOut;
+
+		private Worker(List<String> configuration) {
+			this.configuration = configuration;
+			this.command = command(configuration);
+		}
+
+		/*
+		 * Forks the process once; called without the pool lock, either
+		 * ahead of time or by the first job.
+		 */
+		private void launch() {
+			synchronized (launchLock) {
+				if (process != null || launchFailure != null || closing) return;
+				try {
+					process = new ProcessBuilder(command)
+						.redirectError(ProcessBuilder.Redirect.INHERIT)
+						.start();
+				} catch (IOException e) {
+					launchFailure = e;
+					broken = true;
+					return;
+				}
+				out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+				in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+			}
+		}
+
+		private IOException launchFailure() {
+			synchronized (launchLock) {
+				return launchFailure;
+			}
+		}
+
+		/*
+		 * A job running past the timeout kills the process, which breaks
+		 * the worker and gets it replaced.
+		 */
+		private synchronized String execute(String operation, long timeoutMillis, int opcode, String... args) throws ScriptException {
+			launch();
+			IOException failure = launchFailure();
+			if (failure != null) throw new JSUtilsException("Can't start worker process", failure);
+			if (broken) throw new StaleWorkerException();
+			Process process;
+			synchronized (launchLock) {
+				process = this.process;
+			}
+			if (process == null) throw new JSUtilsException("Worker pool is closed");
+			/* JVM startup and warm-up don't count against the job's timeout */
+			if (!ready) {
+				try {
+					if (in.read() != ProcessWorker.READY)
+						throw new IOException("Worker process didn't start");
+					ready = true;
+				} catch (IOException e) {
+					broken = true;
+					throw new JSUtilsException("Worker process has failed", e);
+				}
+			}
+			timedOut = false;
+			ScheduledFuture<?> timeout = (timeoutMillis <= 0) ? null :
+				TIMEOUT_EXECUTOR.schedule(() -> {
+					timedOut = true;
+					process.destroyForcibly();
+				}, timeoutMillis, TimeUnit.MILLISECONDS);
+			try {
+				out.write(opcode);
+				for (String arg : args)
+					ProcessWorker.writeString(out, arg);
+				out.flush();
+				int status = in.read();
+				if (status < 0) throw new IOException("Worker process exited");
+				String result = ProcessWorker.readString(in);
+				usedHeap = in.readLong();
+				jobs++;
+				if (status != ProcessWorker.OK) throw new ScriptException(result);
+				return result;
+			} catch (IOException e) {
+				broken = true;
+				if (timedOut) throw new ScriptTimeoutException(operation, timeoutMillis);
+				throw new JSUtilsException("Worker process has failed", e);
+			} finally {
+				if (timeout != null) timeout.cancel(false);
+			}
+		}
+
+		private void close() {
+			Process process;
+			synchronized (launchLock) {
+				closing = true;
+				process = this.process;
+			}
+			if (process == null) return;
+			try {
+				out.close();
+			} catch (IOException e) {}
+			try {
+				if (!process.waitFor(closeTimeoutMillis, TimeUnit.MILLISECONDS))
+					process.destroyForcibly();
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private int size = Runtime.getRuntime().availableProcessors();
+	private int maxJobsPerWorker = DEFAULT_MAX_JOBS_PER_WORKER;
+	private long maxHeapUsage;
+	private boolean warmUp = true;
+	private String javaCommand = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+	private String classpath = System.getProperty("java.class.path");
+	private List<String> jvmArgs = Collections.emptyList();
+	private long closeTimeoutMillis = DEFAULT_CLOSE_TIMEOUT_MILLIS;
+	private final Map<List<String>,Worker[]> workers = new LinkedHashMap<>();
+	private boolean closed;
+
+	public synchronized ProcessWorkerPool size(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("Invalid worker pool size "+size);
+		this.size = size;
+		return this;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized ProcessWorkerPool maxJobsPerWorker(int maxJobsPerWorker) {
+		this.maxJobsPerWorker = maxJobsPerWorker;
+		return this;
+	}
+
+	public synchronized int maxJobsPerWorker() {
+		return maxJobsPerWorker;
+	}
+
+	/*
+	 * Used heap in bytes past which a worker is replaced, 0 to disable.
+	 */
+	public synchronized ProcessWorkerPool maxHeapUsage(long maxHeapUsage) {
+		this.maxHeapUsage = maxHeapUsage;
+		return this;
+	}
+
+	public synchronized long maxHeapUsage() {
+		return maxHeapUsage;
+	}
+
+	public synchronized ProcessWorkerPool warmUp(boolean warmUp) {
+		this.warmUp = warmUp;
+		return this;
+	}
+
+	public synchronized boolean warmUp() {
+		return warmUp;
+	}
+
+	public synchronized ProcessWorkerPool javaCommand(String javaCommand) {
+		this.javaCommand = javaCommand;
+		return this;
+	}
+
+	public synchronized String javaCommand() {
+		return javaCommand;
+	}
+
+	public synchronized ProcessWorkerPool classpath(String classpath) {
+		this.classpath = classpath;
+		return this;
+	}
+
+	public synchronized String classpath() {
+		return classpath;
+	}
+
+	public synchronized ProcessWorkerPool jvmArgs(String... jvmArgs) {
+		this.jvmArgs = Arrays.asList(jvmArgs.clone());
+		return this;
+	}
+
+	public synchronized List<String> jvmArgs() {
+		return jvmArgs;
+	}
+
+	public synchronized ProcessWorkerPool closeTimeoutMillis(long closeTimeoutMillis) {
+		this.closeTimeoutMillis = closeTimeoutMillis;
+		return this;
+	}
+
+	public synchronized long closeTimeoutMillis() {
+		return closeTimeoutMillis;
+	}
+
+	private List<String> command(List<String> configuration) {
+		List<String> command = new ArrayList<>();
+		command.add(javaCommand);
+		command.addAll(jvmArgs);
+		command.add("-cp");
+		command.add(classpath);
+		command.add(ProcessWorker.class.getName());
+		command.addAll(configuration);
+		if (warmUp) command.add(ProcessWorker.WARM_UP_ARGUMENT);
+		return command;
+	}
+
+	/*
+	 * Starts every worker process with the default engine setup; they boot
+	 * and warm up in parallel. Without it workers start on first use.
+	 */
+	public ProcessWorkerPool start() {
+		start(Collections.emptyList());
+		launch(Collections.emptyList());
+		return this;
+	}
+
+	/*
+	 * Starts the workers for the engine setup of the given JSUtils.
+	 */
+	public ProcessWorkerPool start(JSUtils jsUtils) {
+		List<String> configuration = jsUtils.workerConfiguration();
+		start(configuration);
+		launch(configuration);
+		return this;
+	}
+
+	private synchronized Worker[] start(List<String> configuration) {
+		if (closed) throw new JSUtilsException("Worker pool is closed");
+		Worker[] configured = workers.computeIfAbsent(configuration, key -> new Worker[size]);
+		for (int i = 0; i < configured.length; i++)
+			if (configured[i] == null) configured[i] = new Worker(configuration);
+		return configured;
+	}
+
+	/*
+	 * Forks the processes of the configured workers that have none yet,
+	 * replacements included, outside the pool lock.
+	 */
+	private void launch(List<String> configuration) {
+		Worker[] configured;
+		synchronized (this) {
+			configured = workers.get(configuration);
+			if (configured == null) return;
+			configured = configured.clone();
+		}
+		for (Worker worker : configured)
+			if (worker != null) worker.launch();
+		for (Worker worker : configured) {
+			IOException failure = (worker == null) ? null : worker.launchFailure();
+			if (failure != null) throw new JSUtilsException("Can't start worker process", failure);
+		}
+	}
+
+	private synchronized Worker acquire(List<String> configuration) {
+		Worker[] configured = start(configuration);
+		int slot = 0;
+		for (int i = 1; i < configured.length; i++)
+			if (configured[i].load < configured[slot].load) slot = i;
+		Worker worker = configured[slot];
+		worker.load++;
+		return worker;
+	}
+
+	/*
+	 * Returns true when the worker is retired and idle, so the caller has
+	 * to close it outside the pool lock.
+	 */
+	private synchronized boolean release(Worker worker) {
+		worker.load--;
+		if (!worker.retired && (worker.broken || worker.jobs >= maxJobsPerWorker ||
+				(maxHeapUsage > 0 && worker.usedHeap > maxHeapUsage))) {
+			worker.retired = true;
+			Worker[] configured = workers.get(worker.configuration);
+			if (configured != null)
+				for (int i = 0; i < configured.length; i++)
+					if (configured[i] == worker) configured[i] = new Worker(worker.configuration);
+		}
+		return worker.retired && worker.load == 0;
+	}
+
+	private String execute(List<String> configuration, String operation, long timeoutMillis, int opcode,
+			String... args) throws ScriptException {
+		while (true) {
+			Worker worker = acquire(configuration);
+			try {
+				return worker.execute(operation, timeoutMillis, opcode, args);
+			} catch (StaleWorkerException e) {
+				continue;
+			} finally {
+				if (release(worker)) worker.close();
+				if (worker.retired) launchReplacements(configuration);
+			}
+		}
+	}
+
+	private void launchReplacements(List<String> configuration) {
+		try {
+			launch(configuration);
+		} catch (JSUtilsException e) {
+			/* The next job on the replacement reports it */
+		}
+	}
+
+	public String babelTransform(String source, String options) throws ScriptException {
+		return babelTransform(source, options, 0);
+	}
+
+	public String babelTransform(String source, String options, long timeoutMillis) throws ScriptException {
+		return babelTransform(Collections.emptyList(), source, options, timeoutMillis);
+	}
+
+	String babelTransform(List<String> configuration, String source, String options, long timeoutMillis) throws ScriptException {
+		return execute(configuration, "babel", timeoutMillis, ProcessWorker.BABEL_TRANSFORM, options, source);
+	}
+
+	public String optimizeByUglifyJS2Script(String source, String jsOptionsObject) throws ScriptException {
+		return optimizeByUglifyJS2Script(source, jsOptionsObject, 0);
+	}
+
+	public String optimizeByUglifyJS2Script(String source, String jsOptionsObject, long timeoutMillis) throws ScriptException {
+		return optimizeByUglifyJS2Script(Collections.emptyList(), source, jsOptionsObject, timeoutMillis);
+	}
+
+	String optimizeByUglifyJS2Script(List<String> configuration, String source, String jsOptionsObject,
+			long timeoutMillis) throws ScriptException {
+		return execute(configuration, "uglifyJS2", timeoutMillis, ProcessWorker.UGLIFYJS2_MINIFY, jsOptionsObject, source);
+	}
+
+	public String staticAnalyzeByJSHintScript(String source, String jsOptionsObject, String jsPredefObject) throws ScriptException {
+		return staticAnalyzeByJSHintScript(source, jsOptionsObject, jsPredefObject, 0);
+	}
+
+	public String staticAnalyzeByJSHintScript(String source, String jsOptionsObject, String jsPredefObject,
+			long timeoutMillis) throws ScriptException {
+		return staticAnalyzeByJSHintScript(Collections.emptyList(), source, jsOptionsObject, jsPredefObject, timeoutMillis);
+	}
+
+	String staticAnalyzeByJSHintScript(List<String> configuration, String source, String jsOptionsObject,
+			String jsPredefObject, long timeoutMillis) throws ScriptException {
+		return execute(configuration, "JSHint", timeoutMillis, ProcessWorker.JSHINT_ANALYZE,
+			jsOptionsObject, jsPredefObject, source);
+	}
+
+	@Override
+	public void close() {
+		List<Worker> idle = new ArrayList<>();
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+			for (Worker[] configured : workers.values()) {
+				for (Worker worker : configured) {
+					if (worker == null) continue;
+					worker.retired = true;
+					if (worker.load == 0) idle.add(worker);
+				}
+			}
+			workers.clear();
+		}
+		for (Worker worker : idle)
+			worker.close();
+	}
+}
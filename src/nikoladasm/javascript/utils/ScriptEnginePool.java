@@ -0,0 +1,347 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.ScriptException;
+
+public class ScriptEnginePool {
+
+	@FunctionalInterface
+	public static interface PooledScriptEngineFactory {
+		PooledScriptEngine create() throws Exception;
+	}
+
+	@FunctionalInterface
+	public static interface PooledScriptEngineTask<T> {
+		T execute(PooledScriptEngine engine) throws ScriptException;
+	}
+
+	/*
+	 * Evaluation thread of a timed call; cleared under its own lock when
+	 * the task returns, so a late stop can't hit the thread's next task.
+	 */
+	private static class Evaluation {
+
+		private Thread thread;
+		private Runnable onFinish;
+
+		private synchronized void started() {
+			thread = Thread.currentThread();
+		}
+
+		private void finished() {
+			Runnable action;
+			synchronized (this) {
+				thread = null;
+				Thread.interrupted();
+				action = onFinish;
+				onFinish = null;
+			}
+			if (action != null) action.run();
+		}
+
+		/*
+		 * False when the evaluation has already finished.
+		 */
+		private synchronized boolean whenFinished(Runnable action) {
+			if (thread == null) return false;
+			onFinish = action;
+			return true;
+		}
+
+		/*
+		 * Prefers the runtime's own cancellation. Thread.stop is only the
+		 * last resort: it may leave the compiled code and locks the library
+		 * shares between engines inconsistent, so the library is discarded
+		 * and rebuilt after it. Later JDKs no longer support it; returns the
+		 * failure when neither can stop the evaluation.
+		 */
+		@SuppressWarnings("deprecation")
+		private synchronized RuntimeException stop(PooledScriptEngine engine) {
+			if (thread == null) return null;
+			thread.interrupt();
+			if (engine.cancel()) return null;
+			try {
+				thread.stop();
+			} catch (UnsupportedOperationException | SecurityException e) {
+				return e;
+			}
+			if (engine.library() != null) engine.library().discard();
+			return null;
+		}
+	}
+
+	private static final AtomicInteger EVALUATION_THREADS = new AtomicInteger();
+	private static final ExecutorService EVALUATION_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "js-utils-eval-"+EVALUATION_THREADS.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String name;
+	private final int maxSize;
+	private final PooledScriptEngineFactory factory;
+	private final BlockingQueue<PooledScriptEngine> idleEngines;
+	private final Semaphore slots;
+	private final AtomicInteger createdEngines = new AtomicInteger();
+	private final ConcurrentMap<PooledScriptEngine,Evaluation> abandonedEngines = new ConcurrentHashMap<>();
+	private volatile MetricsListener metricsListener;
+
+	public ScriptEnginePool(String name, int maxSize, PooledScriptEngineFactory factory) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Invalid engine pool size "+maxSize);
+		this.name = name;
+		this.maxSize = maxSize;
+		this.factory = factory;
+		idleEngines = new ArrayBlockingQueue<>(maxSize);
+		slots = new Semaphore(maxSize);
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public int maxSize() {
+		return maxSize;
+	}
+
+	public int size() {
+		return createdEngines.get();
+	}
+
+	public int idle() {
+		return idleEngines.size();
+	}
+
+	public ScriptEnginePool metricsListener(MetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+		return this;
+	}
+
+	public MetricsListener metricsListener() {
+		return metricsListener;
+	}
+
+	private PooledScriptEngine createEngine() {
+		MetricsListener listener = metricsListener;
+		long start = (listener == null) ? 0 : System.nanoTime();
+		try {
+			PooledScriptEngine engine = factory.create();
+			if (listener != null) listener.engineCreated(name, System.nanoTime() - start);
+			return engine;
+		} catch (Exception e) {
+			createdEngines.decrementAndGet();
+			throw new JSUtilsException("Can't initialize "+name+" script engine", e);
+		}
+	}
+
+	private PooledScriptEngine idleEngine() {
+		PooledScriptEngine engine;
+		while ((engine = idleEngines.poll()) != null && isStale(engine))
+			createdEngines.decrementAndGet();
+		return engine;
+	}
+
+	private static boolean isStale(PooledScriptEngine engine) {
+		return engine.library() != null && engine.library().isDiscarded();
+	}
+
+	/*
+	 * Every borrowed engine holds one of maxSize slots until it is released
+	 * or discarded; idle engines hold none.
+	 */
+	public PooledScriptEngine borrow() {
+		MetricsListener listener = metricsListener;
+		long start = (listener == null) ? 0 : System.nanoTime();
+		boolean waited = false;
+		if (!slots.tryAcquire()) {
+			try {
+				slots.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new JSUtilsException("Interrupted while waiting for "+name+" script engine", e);
+			}
+			waited = true;
+		}
+		PooledScriptEngine engine = idleEngine();
+		if (engine != null) {
+			if (listener != null) listener.engineWaited(name, waited ? System.nanoTime() - start : 0);
+			return engine;
+		}
+		createdEngines.incrementAndGet();
+		try {
+			engine = createEngine();
+		} catch (RuntimeException e) {
+			slots.release();
+			throw e;
+		}
+		if (listener != null && waited) listener.engineWaited(name, System.nanoTime() - start);
+		return engine;
+	}
+
+	/*
+	 * Abandoned engines, and engines of a library that has been discarded,
+	 * are discarded instead of going back to the pool.
+	 */
+	public void release(PooledScriptEngine engine) {
+		if (engine == null) return;
+		if (abandonedEngines.containsKey(engine) || isStale(engine)) {
+			discard(engine);
+			return;
+		}
+		if (!idleEngines.offer(engine))
+			createdEngines.decrementAndGet();
+		slots.release();
+	}
+
+	/*
+	 * For an engine that can't be trusted any more; the pool creates a new
+	 * one in its place on demand. The slot of an engine whose evaluation
+	 * is still running is freed only when that evaluation ends, so the
+	 * pool never runs more scripts than its size.
+	 */
+	public void discard(PooledScriptEngine engine) {
+		if (engine == null) return;
+		Evaluation evaluation = abandonedEngines.remove(engine);
+		if (evaluation == null || !evaluation.whenFinished(this::freeSlot))
+			freeSlot();
+	}
+
+	private void freeSlot() {
+		createdEngines.decrementAndGet();
+		slots.release();
+	}
+
+	/*
+	 * True when a call on the engine timed out or was interrupted, so it
+	 * has to be discarded.
+	 */
+	public boolean isAbandoned(PooledScriptEngine engine) {
+		return abandonedEngines.containsKey(engine);
+	}
+
+	public boolean prestartEngine() {
+		if (!slots.tryAcquire()) return false;
+		int created;
+		do {
+			created = createdEngines.get();
+			if (created >= maxSize) {
+				slots.release();
+				return false;
+			}
+		} while (!createdEngines.compareAndSet(created, created + 1));
+		PooledScriptEngine engine;
+		try {
+			engine = createEngine();
+		} catch (RuntimeException e) {
+			slots.release();
+			throw e;
+		}
+		release(engine);
+		return true;
+	}
+
+	public <T> T execute(PooledScriptEngineTask<T> task) throws ScriptException {
+		PooledScriptEngine engine = borrow();
+		try {
+			return task.execute(engine);
+		} finally {
+			release(engine);
+		}
+	}
+
+	/*
+	 * Scripts don't check for interruption, so an evaluation running past
+	 * the timeout is stopped and its engine discarded and replaced.
+	 */
+	public <T> T execute(PooledScriptEngineTask<T> task, long timeoutMillis) throws ScriptException {
+		if (timeoutMillis <= 0) return execute(task);
+		PooledScriptEngine engine = borrow();
+		try {
+			return call(engine, task, timeoutMillis);
+		} finally {
+			release(engine);
+		}
+	}
+
+	/*
+	 * Runs the task against an engine already borrowed from this pool on
+	 * an evaluation thread, waiting at most timeoutMillis. When it throws
+	 * ScriptTimeoutException or the caller is interrupted, the evaluation
+	 * has been stopped and the engine is abandoned. Compile scripts before
+	 * the call: a stopped evaluation must not hold the library's locks.
+	 */
+	public <T> T call(PooledScriptEngine engine, PooledScriptEngineTask<T> task, long timeoutMillis) throws ScriptException {
+		if (timeoutMillis <= 0) return task.execute(engine);
+		Evaluation evaluation = new Evaluation();
+		Future<T> future = EVALUATION_EXECUTOR.submit(() -> {
+			evaluation.started();
+			try {
+				return task.execute(engine);
+			} finally {
+				evaluation.finished();
+			}
+		});
+		try {
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			ScriptTimeoutException timeout = new ScriptTimeoutException(name, timeoutMillis);
+			RuntimeException failure = abandon(engine, evaluation, future);
+			if (failure != null) timeout.addSuppressed(failure);
+			throw timeout;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			JSUtilsException interrupted = new JSUtilsException("Interrupted while evaluating "+name+" script", e);
+			RuntimeException failure = abandon(engine, evaluation, future);
+			if (failure != null) interrupted.addSuppressed(failure);
+			throw interrupted;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ScriptException) throw (ScriptException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new JSUtilsException("Can't evaluate "+name+" script", cause);
+		}
+	}
+
+	/*
+	 * Returns the failure to stop the evaluation, if any; the engine then
+	 * keeps its slot until the evaluation ends by itself.
+	 */
+	private RuntimeException abandon(PooledScriptEngine engine, Evaluation evaluation, Future<?> future) {
+		abandonedEngines.put(engine, evaluation);
+		future.cancel(true);
+		RuntimeException failure = evaluation.stop(engine);
+		if (failure == null) return null;
+		return new JSUtilsException("Can't stop "+name+" script, it keeps its engine slot until it ends", failure);
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+/*
+ * Library scripts are compiled once per JVM on a shared engine and then
+ * evaluated into a fresh global for every pooled instance, so the
+ * parse and compile cost is paid only by the first instance.
+ */
+public class ScriptLibrary {
+
+	public static class ScriptSource {
+
+		public final String name;
+		public final String source;
+
+		public ScriptSource(String name, String source) {
+			this.name = name;
+			this.source = source;
+		}
+	}
+
+	@FunctionalInterface
+	public static interface ScriptSourceLoader {
+		List<ScriptSource> load() throws Exception;
+	}
+
+	private static final int MAX_COMPILED_SCRIPTS = 256;
+	private static final ConcurrentMap<String,ScriptLibrary> LIBRARIES = new ConcurrentHashMap<>();
+
+	private final String name;
+	private final ScriptRuntime runtime;
+	private final ScriptSourceLoader loader;
+	private volatile ScriptEngine engine;
+	private volatile List<CompiledScript> compiledLibrary;
+	private volatile String sourceHash;
+	private volatile boolean discarded;
+	private List<ScriptSource> sources;
+	private final Map<String,CompiledScript> compiledScripts =
+		new LinkedHashMap<String,CompiledScript>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,CompiledScript> eldest) {
+				return size() > MAX_COMPILED_SCRIPTS;
+			}
+		};
+
+	public static ScriptLibrary library(String name, ScriptSourceLoader loader) {
+		return library(name, ScriptRuntime.NASHORN, loader);
+	}
+
+	public static ScriptLibrary library(String name, ScriptRuntime runtime, ScriptSourceLoader loader) {
+		return LIBRARIES.computeIfAbsent(key(name, runtime),
+			key -> new ScriptLibrary(name, runtime, loader));
+	}
+
+	private static String key(String name, ScriptRuntime runtime) {
+		return runtime.engineName()+"/"+name;
+	}
+
+	public static void clear() {
+		LIBRARIES.clear();
+	}
+
+	private ScriptLibrary(String name, ScriptRuntime runtime, ScriptSourceLoader loader) {
+		this.name = name;
+		this.runtime = runtime;
+		this.loader = loader;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public ScriptRuntime runtime() {
+		return runtime;
+	}
+
+	public boolean isCompiled() {
+		return compiledLibrary != null;
+	}
+
+	/*
+	 * For a library whose shared engine can't be trusted any more, such as
+	 * after a thread was stopped inside it. The next lookup by name loads
+	 * and compiles the scripts again on a new engine; instances created
+	 * from this one keep working with it until they are dropped.
+	 */
+	public void discard() {
+		discarded = true;
+		LIBRARIES.remove(key(name, runtime), this);
+	}
+
+	public boolean isDiscarded() {
+		return discarded;
+	}
+
+	private synchronized List<ScriptSource> sources() {
+		if (sources != null) return sources;
+		try {
+			sources = loader.load();
+		} catch (JSUtilsException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new JSUtilsException("Can't load "+name+" library scripts", e);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (ScriptSource source : sources)
+			sb.append(TransformResultCache.contentHash(source.source));
+		sourceHash = TransformResultCache.contentHash(sb.toString());
+		return sources;
+	}
+
+	public String sourceHash() {
+		String hash = sourceHash;
+		if (hash != null) return hash;
+		sources();
+		return sourceHash;
+	}
+
+	public ScriptEngine engine() {
+		compiledLibrary();
+		return engine;
+	}
+
+	private List<CompiledScript> compiledLibrary() {
+		List<CompiledScript> compiled = compiledLibrary;
+		if (compiled != null) return compiled;
+		synchronized (this) {
+			if (compiledLibrary != null) return compiledLibrary;
+			try {
+				ScriptEngine scriptEngine = runtime.newEngine();
+				List<CompiledScript> scripts = new ArrayList<>();
+				for (ScriptSource source : sources()) {
+					scriptEngine.put(ScriptEngine.FILENAME, source.name);
+					scripts.add(((Compilable) scriptEngine).compile(source.source));
+				}
+				engine = scriptEngine;
+				compiledLibrary = Collections.unmodifiableList(scripts);
+				sources = null;
+				return compiledLibrary;
+			} catch (JSUtilsException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new JSUtilsException("Can't compile "+name+" library scripts", e);
+			}
+		}
+	}
+
+	public CompiledScript compile(String script) throws ScriptException {
+		synchronized (compiledScripts) {
+			CompiledScript compiledScript = compiledScripts.get(script);
+			if (compiledScript == null) {
+				compiledScript = ((Compilable) engine()).compile(script);
+				compiledScripts.put(script, compiledScript);
+			}
+			return compiledScript;
+		}
+	}
+
+	public CompiledScript compileCall(String function, int argumentCount) throws ScriptException {
+		return runtime.compileCall(this, function, argumentCount);
+	}
+
+	public PooledScriptEngine newInstance() throws ScriptException {
+		List<CompiledScript> scripts = compiledLibrary();
+		ScriptContext context = new SimpleScriptContext();
+		context.setBindings(runtime.createBindings(engine), ScriptContext.ENGINE_SCOPE);
+		for (CompiledScript script : scripts)
+			script.eval(context);
+		return new PooledScriptEngine(this, context);
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/*
+ * JavaScript runtime behind the script libraries, picked by JSR-223 engine
+ * name. The engine factory is looked up once and every library engine is
+ * created by it, so runtimes whose factory holds a shared engine (GraalJS
+ * shares one polyglot Engine per factory) reuse compiled code between
+ * the contexts of all pooled instances.
+ */
+public class ScriptRuntime {
+
+	public static final String NASHORN_ENGINE_NAME = "nashorn";
+	public static final String GRAALJS_ENGINE_NAME = "graal.js";
+
+	public static final ScriptRuntime NASHORN = new ScriptRuntime(NASHORN_ENGINE_NAME);
+	public static final ScriptRuntime GRAALJS = new GraalJSScriptRuntime();
+
+	/*
+	 * GraalJS bindings aren't the global object, so functions are called by
+	 * evaluating a compiled call expression over arguments put into the
+	 * context. Host access and Nashorn compatibility (Java.to, Java.type)
+	 * are enabled through the magic bindings read when the polyglot context
+	 * of the bindings is created.
+	 */
+	private static class GraalJSScriptRuntime extends ScriptRuntime {
+
+		private static final String ARGUMENT_PREFIX = "jsUtilsArgument";
+
+		private GraalJSScriptRuntime() {
+			super(GRAALJS_ENGINE_NAME);
+		}
+
+		@Override
+		public Bindings createBindings(ScriptEngine engine) {
+			Bindings bindings = engine.createBindings();
+			bindings.put("polyglot.js.allowAllAccess", true);
+			bindings.put("polyglot.js.nashorn-compat", true);
+			return bindings;
+		}
+
+		@Override
+		public CompiledScript compileCall(ScriptLibrary library, String function, int argumentCount) throws ScriptException {
+			StringBuilder call = new StringBuilder(function).append('(');
+			for (int i = 0; i < argumentCount; i++) {
+				if (i > 0) call.append(", ");
+				call.append(ARGUMENT_PREFIX).append(i);
+			}
+			return library.compile(call.append(')').toString());
+		}
+
+		@Override
+		public Object invoke(ScriptLibrary library, ScriptContext context, CompiledScript call,
+				String function, Object... args) throws ScriptException {
+			if (call == null) call = compileCall(library, function, args.length);
+			Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+			for (int i = 0; i < args.length; i++)
+				bindings.put(ARGUMENT_PREFIX+i, args[i]);
+			try {
+				return call.eval(context);
+			} finally {
+				for (int i = 0; i < args.length; i++)
+					bindings.remove(ARGUMENT_PREFIX+i);
+			}
+		}
+
+		/*
+		 * Closing the polyglot context of the bindings with cancellation
+		 * stops a script running in it from any thread. The polyglot API
+		 * isn't a compile time dependency, so it's reached reflectively.
+		 */
+		@Override
+		public boolean cancel(ScriptContext context) {
+			Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+			try {
+				Object polyglotContext = bindings.getClass().getMethod("getContext").invoke(bindings);
+				polyglotContext.getClass().getMethod("close", boolean.class).invoke(polyglotContext, true);
+				return true;
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return false;
+			}
+		}
+	}
+
+	private final String engineName;
+	private volatile ScriptEngineFactory factory;
+
+	public static ScriptRuntime runtime(String engineName) {
+		if (NASHORN_ENGINE_NAME.equals(engineName)) return NASHORN;
+		if (GRAALJS_ENGINE_NAME.equals(engineName)) return GRAALJS;
+		return new ScriptRuntime(engineName);
+	}
+
+	/*
+	 * Nashorn while the JDK still ships it, GraalJS after that.
+	 */
+	public static ScriptRuntime defaultRuntime() {
+		return (NASHORN.isAvailable() || !GRAALJS.isAvailable()) ? NASHORN : GRAALJS;
+	}
+
+	public ScriptRuntime(String engineName) {
+		this.engineName = engineName;
+	}
+
+	public String engineName() {
+		return engineName;
+	}
+
+	private ScriptEngineFactory lookupFactory() {
+		for (ScriptEngineFactory engineFactory : new ScriptEngineManager().getEngineFactories())
+			if (engineFactory.getNames().contains(engineName)) return engineFactory;
+		return null;
+	}
+
+	private ScriptEngineFactory factory() {
+		ScriptEngineFactory engineFactory = factory;
+		if (engineFactory != null) return engineFactory;
+		synchronized (this) {
+			if (factory == null) factory = lookupFactory();
+			if (factory == null)
+				throw new JSUtilsException("Script engine "+engineName+" isn't available");
+			return factory;
+		}
+	}
+
+	public boolean isAvailable() {
+		try {
+			factory();
+			return true;
+		} catch (JSUtilsException e) {
+			return false;
+		}
+	}
+
+	public ScriptEngine newEngine() {
+		ScriptEngine engine = factory().getScriptEngine();
+		if (!(engine instanceof Compilable))
+			throw new JSUtilsException("Script engine "+engineName+" isn't compilable");
+		return engine;
+	}
+
+	public Bindings createBindings(ScriptEngine engine) {
+		return engine.createBindings();
+	}
+
+	/*
+	 * Call expression compiled ahead of a timed invocation, so compilation
+	 * never runs on an evaluation that may be stopped; null when functions
+	 * are called directly.
+	 */
+	public CompiledScript compileCall(ScriptLibrary library, String function, int argumentCount) throws ScriptException {
+		return null;
+	}
+
+	public Object invoke(ScriptLibrary library, ScriptContext context, String function, Object... args) throws ScriptException {
+		return invoke(library, context, null, function, args);
+	}
+
+	/*
+	 * Nashorn bindings are the script global, so library functions are
+	 * called as its methods.
+	 */
+	public Object invoke(ScriptLibrary library, ScriptContext context, CompiledScript call,
+			String function, Object... args) throws ScriptException {
+		try {
+			return ((Invocable) library.engine()).invokeMethod(
+				context.getBindings(ScriptContext.ENGINE_SCOPE), function, args);
+		} catch (NoSuchMethodException e) {
+			throw new ScriptException(e);
+		}
+	}
+
+	/*
+	 * Stops a script running in the context from another thread; false
+	 * when the runtime has no way to do that.
+	 */
+	public boolean cancel(ScriptContext context) {
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return engineName;
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Version 3 source map. Mappings are kept decoded in one int array, six
+ * ints per segment, sorted by generated position, and are encoded back
+ * to VLQ only while writing, straight to the target writer.
+ */
+public class SourceMap {
+
+	public static class Mapping {
+
+		public final String source;
+		public final int line;
+		public final int column;
+		public final String name;
+
+		Mapping(String source, int line, int column, String name) {
+			this.source = source;
+			this.line = line;
+			this.column = column;
+			this.name = name;
+		}
+	}
+
+	static final int FIELDS = 6;
+	static final int GENERATED_LINE = 0;
+	static final int GENERATED_COLUMN = 1;
+	static final int SOURCE = 2;
+	static final int ORIGINAL_LINE = 3;
+	static final int ORIGINAL_COLUMN = 4;
+	static final int NAME = 5;
+
+	private final String file;
+	private final List<String> sources;
+	private final List<String> sourcesContent;
+	private final List<String> names;
+	private final int[] segments;
+	private final int size;
+	private final int[] lineStarts;
+
+	SourceMap(String file, List<String> sources, List<String> sourcesContent,
+			List<String> names, int[] segments, int size) {
+		this.file = file;
+		this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+		this.sourcesContent = Collections.unmodifiableList(new ArrayList<>(sourcesContent));
+		this.names = Collections.unmodifiableList(new ArrayList<>(names));
+		this.segments = segments;
+		this.size = size;
+		int lines = (size == 0) ? 0 : segments[(size - 1)*FIELDS + GENERATED_LINE] + 1;
+		lineStarts = new int[lines + 1];
+		int segment = 0;
+		for (int line = 0; line <= lines; line++) {
+			while (segment < size && segments[segment*FIELDS + GENERATED_LINE] < line)
+				segment++;
+			lineStarts[line] = segment;
+		}
+	}
+
+	public static SourceMap decode(String file, List<String> sources, List<String> sourcesContent,
+			List<String> names, String mappings) {
+		SourceMapBuilder builder = new SourceMapBuilder(file, null);
+		for (int i = 0; i < sources.size(); i++)
+			builder.sourceContent(sources.get(i), (i < sourcesContent.size()) ? sourcesContent.get(i) : null);
+		builder.addMappings(mappings, sources.toArray(new String[0]), names.toArray(new String[0]));
+		return builder.build();
+	}
+
+	public String file() {
+		return file;
+	}
+
+	public List<String> sources() {
+		return sources;
+	}
+
+	public List<String> sourcesContent() {
+		return sourcesContent;
+	}
+
+	public List<String> names() {
+		return names;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	int field(int segment, int field) {
+		return segments[segment*FIELDS + field];
+	}
+
+	int find(int line, int column) {
+		if (line < 0 || line >= lineStarts.length - 1) return -1;
+		int low = lineStarts[line];
+		int high = lineStarts[line + 1] - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (field(middle, GENERATED_COLUMN) <= column) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * Lines are 1-based and columns 0-based, as in the Mozilla source-map
+	 * library.
+	 */
+	public Mapping originalPositionFor(int line, int column) {
+		int segment = find(line - 1, column);
+		if (segment < 0 || field(segment, SOURCE) < 0) return null;
+		int name = field(segment, NAME);
+		return new Mapping(sources.get(field(segment, SOURCE)), field(segment, ORIGINAL_LINE) + 1,
+			field(segment, ORIGINAL_COLUMN), (name < 0) ? null : names.get(name));
+	}
+
+	private static void writeString(Writer out, String value) throws IOException {
+		if (value == null) {
+			out.write("null");
+			return;
+		}
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"' : out.write("\\\""); break;
+				case '\\' : out.write("\\\\"); break;
+				case '\n' : out.write("\\n"); break;
+				case '\r' : out.write("\\r"); break;
+				case '\t' : out.write("\\t"); break;
+				default :
+					if (c < 0x20 || c == '\u2028' || c == '\u2029')
+						out.write(String.format("\\u%04x", (int) c));
+					else
+						out.write(c);
+			}
+		}
+		out.write('"');
+	}
+
+	private static void writeStrings(Writer out, List<String> values) throws IOException {
+		out.write('[');
+		for (int i = 0; i < values.size(); i++) {
+			if (i > 0) out.write(',');
+			writeString(out, values.get(i));
+		}
+		out.write(']');
+	}
+
+	private void writeMappings(Writer out) throws IOException {
+		int line = 0;
+		int previousColumn = 0;
+		int previousSource = 0;
+		int previousOriginalLine = 0;
+		int previousOriginalColumn = 0;
+		int previousName = 0;
+		for (int segment = 0; segment < size; segment++) {
+			int generatedLine = field(segment, GENERATED_LINE);
+			if (generatedLine != line) {
+				for (; line < generatedLine; line++)
+					out.write(';');
+				previousColumn = 0;
+			} else if (segment > 0) {
+				out.write(',');
+			}
+			int column = field(segment, GENERATED_COLUMN);
+			Base64VLQ.encode(out, column - previousColumn);
+			previousColumn = column;
+			int source = field(segment, SOURCE);
+			if (source < 0) continue;
+			Base64VLQ.encode(out, source - previousSource);
+			previousSource = source;
+			int originalLine = field(segment, ORIGINAL_LINE);
+			Base64VLQ.encode(out, originalLine - previousOriginalLine);
+			previousOriginalLine = originalLine;
+			int originalColumn = field(segment, ORIGINAL_COLUMN);
+			Base64VLQ.encode(out, originalColumn - previousOriginalColumn);
+			previousOriginalColumn = originalColumn;
+			int name = field(segment, NAME);
+			if (name < 0) continue;
+			Base64VLQ.encode(out, name - previousName);
+			previousName = name;
+		}
+	}
+
+	public void writeTo(Writer out) throws IOException {
+		out.write("{\"version\":3,\"file\":");
+		writeString(out, file);
+		out.write(",\"sources\":");
+		writeStrings(out, sources);
+		if (sourcesContent.stream().anyMatch(content -> content != null)) {
+			out.write(",\"sourcesContent\":");
+			writeStrings(out, sourcesContent);
+		}
+		out.write(",\"names\":");
+		writeStrings(out, names);
+		out.write(",\"mappings\":\"");
+		writeMappings(out);
+		out.write("\"}");
+	}
+
+	@Override
+	public String toString() {
+		StringWriter writer = new StringWriter();
+		try {
+			writeTo(writer);
+		} catch (IOException e) {
+			throw new JSUtilsException("Can't write source map", e);
+		}
+		return writer.toString();
+	}
+}
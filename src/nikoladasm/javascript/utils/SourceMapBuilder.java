@@ -0,0 +1,176 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static nikoladasm.javascript.utils.SourceMap.*;
+
+/*
+ * Collects mappings as the script tools emit them. With an original map
+ * every added mapping is translated through it, which composes the two
+ * maps in one pass; mappings that don't resolve in the original are
+ * dropped. Lines are 1-based and columns 0-based.
+ */
+public class SourceMapBuilder {
+
+	private final String file;
+	private final SourceMap original;
+	private final List<String> sources = new ArrayList<>();
+	private final List<String> sourcesContent = new ArrayList<>();
+	private final Map<String,Integer> sourceIndexes = new HashMap<>();
+	private final List<String> names = new ArrayList<>();
+	private final Map<String,Integer> nameIndexes = new HashMap<>();
+	private int[] segments = new int[FIELDS*256];
+	private int size;
+	private boolean sorted = true;
+
+	public SourceMapBuilder(String file, SourceMap original) {
+		this.file = file;
+		this.original = original;
+	}
+
+	private int sourceIndex(String source) {
+		Integer index = sourceIndexes.get(source);
+		if (index != null) return index;
+		sourceIndexes.put(source, sources.size());
+		sources.add(source);
+		sourcesContent.add(null);
+		return sources.size() - 1;
+	}
+
+	private int nameIndex(String name) {
+		if (name == null) return -1;
+		Integer index = nameIndexes.get(name);
+		if (index != null) return index;
+		nameIndexes.put(name, names.size());
+		names.add(name);
+		return names.size() - 1;
+	}
+
+	public SourceMapBuilder sourceContent(String source, String content) {
+		sourcesContent.set(sourceIndex(source), content);
+		return this;
+	}
+
+	private void addSegment(int generatedLine, int generatedColumn, int source,
+			int originalLine, int originalColumn, int name) {
+		if (size*FIELDS == segments.length)
+			segments = Arrays.copyOf(segments, segments.length*2);
+		if (size > 0) {
+			int previous = (size - 1)*FIELDS;
+			if (generatedLine < segments[previous + GENERATED_LINE] ||
+				(generatedLine == segments[previous + GENERATED_LINE] &&
+				generatedColumn < segments[previous + GENERATED_COLUMN]))
+				sorted = false;
+		}
+		int offset = size*FIELDS;
+		segments[offset + GENERATED_LINE] = generatedLine;
+		segments[offset + GENERATED_COLUMN] = generatedColumn;
+		segments[offset + SOURCE] = source;
+		segments[offset + ORIGINAL_LINE] = originalLine;
+		segments[offset + ORIGINAL_COLUMN] = originalColumn;
+		segments[offset + NAME] = name;
+		size++;
+	}
+
+	public void add(int generatedLine, int generatedColumn, String source,
+			int originalLine, int originalColumn, String name) {
+		if (original == null) {
+			addSegment(generatedLine - 1, generatedColumn, sourceIndex(source),
+				originalLine - 1, originalColumn, nameIndex(name));
+			return;
+		}
+		int segment = original.find(originalLine - 1, originalColumn);
+		if (segment < 0) return;
+		int originalSource = original.field(segment, SOURCE);
+		if (originalSource < 0) return;
+		String originalSourceName = original.sources().get(originalSource);
+		boolean known = sourceIndexes.containsKey(originalSourceName);
+		int sourceIndex = sourceIndex(originalSourceName);
+		if (!known) sourcesContent.set(sourceIndex, original.sourcesContent().get(originalSource));
+		int originalName = original.field(segment, NAME);
+		addSegment(generatedLine - 1, generatedColumn, sourceIndex,
+			original.field(segment, ORIGINAL_LINE), original.field(segment, ORIGINAL_COLUMN),
+			nameIndex((originalName < 0) ? name : original.names().get(originalName)));
+	}
+
+	public void addMappings(String mappings, String[] mappingSources, String[] mappingNames) {
+		int[] position = new int[1];
+		int line = 0;
+		int column = 0;
+		int source = 0;
+		int originalLine = 0;
+		int originalColumn = 0;
+		int name = 0;
+		int length = mappings.length();
+		while (position[0] < length) {
+			char c = mappings.charAt(position[0]);
+			if (c == ';') {
+				line++;
+				column = 0;
+				position[0]++;
+				continue;
+			}
+			if (c == ',') {
+				position[0]++;
+				continue;
+			}
+			column += Base64VLQ.decode(mappings, position);
+			if (position[0] == length || isSeparator(mappings.charAt(position[0]))) continue;
+			source += Base64VLQ.decode(mappings, position);
+			originalLine += Base64VLQ.decode(mappings, position);
+			originalColumn += Base64VLQ.decode(mappings, position);
+			String segmentName = null;
+			if (position[0] < length && !isSeparator(mappings.charAt(position[0]))) {
+				name += Base64VLQ.decode(mappings, position);
+				segmentName = mappingNames[name];
+			}
+			add(line + 1, column, mappingSources[source], originalLine + 1, originalColumn, segmentName);
+		}
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == ',' || c == ';';
+	}
+
+	private void sort() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> {
+			int line = Integer.compare(segments[a*FIELDS + GENERATED_LINE], segments[b*FIELDS + GENERATED_LINE]);
+			return (line != 0) ? line :
+				Integer.compare(segments[a*FIELDS + GENERATED_COLUMN], segments[b*FIELDS + GENERATED_COLUMN]);
+		});
+		int[] sortedSegments = new int[segments.length];
+		for (int i = 0; i < size; i++)
+			System.arraycopy(segments, order[i]*FIELDS, sortedSegments, i*FIELDS, FIELDS);
+		segments = sortedSegments;
+		sorted = true;
+	}
+
+	public SourceMap build() {
+		if (!sorted) sort();
+		return new SourceMap(file, sources, sourcesContent, names, Arrays.copyOf(segments, size*FIELDS), size);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TransformResultCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final int HASH_BUFFER_SIZE = 8192;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static class Key {
+
+		private final String tool;
+		private final String options;
+		private final String contentHash;
+		private final int hashCode;
+
+		private Key(String tool, String options, String contentHash) {
+			this.tool = tool;
+			this.options = options;
+			this.contentHash = contentHash;
+			int hash = tool.hashCode();
+			hash = 31 * hash + options.hashCode();
+			hashCode = 31 * hash + contentHash.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key key = (Key) obj;
+			return contentHash.equals(key.contentHash) &&
+				tool.equals(key.tool) &&
+				options.equals(key.options);
+		}
+	}
+
+	private final int maxEntries;
+	private final Map<Key,String> results;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public TransformResultCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public TransformResultCache(int maxEntries) {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("Invalid cache size "+maxEntries);
+		this.maxEntries = maxEntries;
+		results = new LinkedHashMap<Key,String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,String> eldest) {
+				return size() > TransformResultCache.this.maxEntries;
+			}
+		};
+	}
+
+	public static String contentHash(String content) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new JSUtilsException("Can't create content digest", e);
+		}
+		byte[] buffer = new byte[HASH_BUFFER_SIZE];
+		int position = 0;
+		for (int i = 0; i < content.length(); i++) {
+			char ch = content.charAt(i);
+			buffer[position++] = (byte) (ch >> 8);
+			buffer[position++] = (byte) ch;
+			if (position == buffer.length) {
+				digest.update(buffer, 0, position);
+				position = 0;
+			}
+		}
+		digest.update(buffer, 0, position);
+		byte[] hash = digest.digest();
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0f];
+			hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0f];
+		}
+		return new String(hex);
+	}
+
+	private Key key(String tool, String options, String contentHash) {
+		return new Key(tool, (options == null) ? "" : options, contentHash);
+	}
+
+	public String get(String tool, String options, String contentHash) {
+		String result;
+		Key key = key(tool, options, contentHash);
+		synchronized (results) {
+			result = results.get(key);
+		}
+		if (result == null) misses.incrementAndGet();
+		else hits.incrementAndGet();
+		return result;
+	}
+
+	public void put(String tool, String options, String contentHash, String result) {
+		Key key = key(tool, options, contentHash);
+		synchronized (results) {
+			results.put(key, result);
+		}
+	}
+
+	public int maxEntries() {
+		return maxEntries;
+	}
+
+	public int size() {
+		synchronized (results) {
+			return results.size();
+		}
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public void clear() {
+		synchronized (results) {
+			results.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+}
@@ -20,13 +20,36 @@ package nikoladasm.javascript.utils.dependencies;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nikoladasm.javascript.utils.MetricsListener;
 
 public abstract class BaseJSDependenciesResolver {
 	
+	public static enum ExtractionMode {
+		FULL_PARSE, FAST_SCAN
+	}
+	
+	/*
+	 * Node tree of the extension point that predates DependencyGraph. Kept
+	 * for subclasses still overriding buildIncludesNodeTree instead of
+	 * moduleSpecifiers; new subclasses only supply module specifiers.
+	 */
+	@Deprecated
 	protected static class DependenciesNode {
 		
 		public DependenciesNode root;
@@ -58,11 +81,28 @@ public abstract class BaseJSDependenciesResolver {
 	
 	protected SourceFileReader fileReader;
 	private String[] javaScriptFileExtensions = DEFAULT_JAVASCRIPT_FILE_EXTENSIONS;
+	private int parallelism = 1;
+	private ExecutorService executorService;
+	private ModuleSpecifiersCache moduleSpecifiersCache;
+	private PathResolutionCache pathResolutionCache;
+	private volatile MetricsListener metricsListener;
+	private ExtractionMode extractionMode = ExtractionMode.FULL_PARSE;
+	private final boolean nodeTreeResolver = overridesBuildIncludesNodeTree(getClass());
 	
 	public BaseJSDependenciesResolver(SourceFileReader fileReader) {
 		this.fileReader = fileReader;
 	}
 	
+	private static boolean overridesBuildIncludesNodeTree(Class<?> type) {
+		for (; type != BaseJSDependenciesResolver.class; type = type.getSuperclass()) {
+			try {
+				type.getDeclaredMethod("buildIncludesNodeTree", DependenciesNode.class);
+				return true;
+			} catch (NoSuchMethodException e) {}
+		}
+		return false;
+	}
+	
 	public BaseJSDependenciesResolver javaScriptFileExtensions(String[] javaScriptFileExtensions) {
 		this.javaScriptFileExtensions = javaScriptFileExtensions;
 		return this;
@@ -72,26 +112,289 @@ public abstract class BaseJSDependenciesResolver {
 		return javaScriptFileExtensions;
 	}
 	
+	public BaseJSDependenciesResolver parallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism "+parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+	
+	public int parallelism() {
+		return parallelism;
+	}
+	
+	public BaseJSDependenciesResolver executorService(ExecutorService executorService) {
+		this.executorService = executorService;
+		return this;
+	}
+	
+	public ExecutorService executorService() {
+		return executorService;
+	}
+	
+	public BaseJSDependenciesResolver moduleSpecifiersCache(ModuleSpecifiersCache moduleSpecifiersCache) {
+		this.moduleSpecifiersCache = moduleSpecifiersCache;
+		return this;
+	}
+	
+	public ModuleSpecifiersCache moduleSpecifiersCache() {
+		return moduleSpecifiersCache;
+	}
+	
+	public BaseJSDependenciesResolver pathResolutionCache(PathResolutionCache pathResolutionCache) {
+		this.pathResolutionCache = pathResolutionCache;
+		return this;
+	}
+	
+	public PathResolutionCache pathResolutionCache() {
+		return pathResolutionCache;
+	}
+	
+	public BaseJSDependenciesResolver metricsListener(MetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+		return this;
+	}
+	
+	public MetricsListener metricsListener() {
+		return metricsListener;
+	}
+	
+	public BaseJSDependenciesResolver extractionMode(ExtractionMode extractionMode) {
+		this.extractionMode = extractionMode;
+		return this;
+	}
+	
+	public ExtractionMode extractionMode() {
+		return extractionMode;
+	}
+	
 	protected Path getAbsoluteExistingPath(Path originalPath) {
+		return getAbsoluteExistingPath(originalPath, pathResolutionCache);
+	}
+	
+	private Path getAbsoluteExistingPath(Path originalPath, PathResolutionCache cache) {
 		Path path = (originalPath.isAbsolute()) ? originalPath : originalPath.toAbsolutePath();
+		MetricsListener listener = metricsListener;
+		if (cache != null) {
+			Path resolved = cache.resolve(path, javaScriptFileExtensions, listener);
+			if (resolved != null) return resolved;
+			throw new IllegalArgumentException("Invalid dependencies"+originalPath);
+		}
+		if (listener != null) listener.fileProbed(path);
 		if (Files.exists(path) && !Files.isDirectory(path)) return path;
 		for (String extension : javaScriptFileExtensions) {
 			Path pathWithExtension = path.resolveSibling(path.getFileName() + extension);
+			if (listener != null) listener.fileProbed(pathWithExtension);
 			if (Files.exists(pathWithExtension) && !Files.isDirectory(pathWithExtension)) return pathWithExtension;
 		}
 		throw new IllegalArgumentException("Invalid dependencies"+originalPath);
 	}
 	
-	protected abstract void buildIncludesNodeTree(DependenciesNode parent) throws Exception;
+	protected Path resolveDependency(Path parent, String moduleSpecifier) {
+		return resolveDependency(parent, moduleSpecifier, pathResolutionCache);
+	}
 	
-	public Map<Path,Map<String,Path>> resolve(Path root) throws Exception {
-		Path path = getAbsoluteExistingPath(root.normalize());
+	Path resolveDependency(Path parent, String moduleSpecifier, PathResolutionCache cache) {
+		String dependency;
+		if (moduleSpecifier.startsWith("./"))
+			dependency = moduleSpecifier.substring(2);
+		else
+			dependency = moduleSpecifier;
+		return getAbsoluteExistingPath(parent.getParent().resolve(dependency).normalize(), cache);
+	}
+	
+	/*
+	 * Paths tried, in order, when resolving the specifier from parent.
+	 */
+	List<Path> candidatePaths(Path parent, String moduleSpecifier) {
+		String dependency;
+		if (moduleSpecifier.startsWith("./"))
+			dependency = moduleSpecifier.substring(2);
+		else
+			dependency = moduleSpecifier;
+		Path path = parent.getParent().resolve(dependency).normalize().toAbsolutePath();
+		List<Path> candidates = new ArrayList<>(javaScriptFileExtensions.length + 1);
+		candidates.add(path);
+		for (String extension : javaScriptFileExtensions)
+			candidates.add(path.resolveSibling(path.getFileName() + extension));
+		return candidates;
+	}
+	
+	protected List<String> moduleSpecifiers(String source) throws Exception {
+		throw new UnsupportedOperationException(getClass().getName()+" doesn't extract module specifiers");
+	}
+	
+	/*
+	 * Null when the source can't be scanned, so it's parsed instead.
+	 */
+	protected List<String> scanModuleSpecifiers(String source) {
+		return null;
+	}
+	
+	/*
+	 * Subclasses overriding it are resolved from the node tree they build,
+	 * without parallelism, caches or fast scan.
+	 */
+	@Deprecated
+	protected void buildIncludesNodeTree(DependenciesNode parent) throws Exception {
+		throw new UnsupportedOperationException(getClass().getName()+" doesn't build node trees");
+	}
+	
+	@SuppressWarnings("deprecation")
+	private DependencyGraph resolveNodeTree(Path path) throws Exception {
 		DependenciesNode node = new DependenciesNode();
 		node.root = node;
 		node.path = path;
 		buildIncludesNodeTree(node);
-		Map<Path,Map<String,Path>> dependensiesMap = new HashMap<>();
-		node.populateDependenciesMap(dependensiesMap);
-		return dependensiesMap;
+		Map<Path,Map<String,Path>> dependenciesMap = new HashMap<>();
+		node.populateDependenciesMap(dependenciesMap);
+		DependencyGraph graph = new DependencyGraph(path);
+		Deque<Path> queue = new ArrayDeque<>();
+		queue.add(path);
+		while (!queue.isEmpty()) {
+			Path module = queue.poll();
+			Map<String,Path> dependencies = dependenciesMap.get(module);
+			if (dependencies == null) continue;
+			for (Path dependency : dependencies.values())
+				if (graph.addModule(dependency)) queue.add(dependency);
+			graph.setDependencies(module, new LinkedHashMap<>(dependencies));
+		}
+		return graph;
+	}
+	
+	protected List<String> extractModuleSpecifiers(String source) throws Exception {
+		if (extractionMode == ExtractionMode.FAST_SCAN) {
+			List<String> moduleSpecifiers = scanModuleSpecifiers(source);
+			if (moduleSpecifiers != null) return moduleSpecifiers;
+		}
+		return moduleSpecifiers(source);
+	}
+	
+	private List<String> extractModuleSpecifiers(Path path, String source, MetricsListener listener) throws Exception {
+		long start = System.nanoTime();
+		if (extractionMode == ExtractionMode.FAST_SCAN) {
+			List<String> moduleSpecifiers = scanModuleSpecifiers(source);
+			if (moduleSpecifiers != null) {
+				listener.moduleParsed(path, System.nanoTime() - start, true);
+				return moduleSpecifiers;
+			}
+		}
+		List<String> moduleSpecifiers = moduleSpecifiers(source);
+		listener.moduleParsed(path, System.nanoTime() - start, false);
+		return moduleSpecifiers;
+	}
+	
+	private String read(Path path, MetricsListener listener) throws Exception {
+		long start = System.nanoTime();
+		String source = fileReader.read(path);
+		listener.fileRead(path, System.nanoTime() - start, source.length());
+		return source;
+	}
+	
+	protected Map<String,Path> resolveDependencies(Path path) throws Exception {
+		return resolveDependencies(path, moduleSpecifiersCache, pathResolutionCache);
+	}
+	
+	Map<String,Path> resolveDependencies(Path path, ModuleSpecifiersCache cache, PathResolutionCache pathCache) throws Exception {
+		try {
+			MetricsListener listener = metricsListener;
+			List<String> moduleSpecifiers;
+			if (listener == null) {
+				moduleSpecifiers = (cache == null) ?
+					extractModuleSpecifiers(fileReader.read(path)) :
+					cache.moduleSpecifiers(path, fileReader, this::extractModuleSpecifiers);
+			} else if (cache == null) {
+				moduleSpecifiers = extractModuleSpecifiers(path, read(path, listener), listener);
+			} else {
+				boolean[] parsed = new boolean[1];
+				listener.fileProbed(path);
+				moduleSpecifiers = cache.moduleSpecifiers(path, file -> read(file, listener), source -> {
+					parsed[0] = true;
+					return extractModuleSpecifiers(path, source, listener);
+				});
+				listener.cacheAccessed(MetricsListener.MODULE_SPECIFIERS_CACHE, !parsed[0]);
+			}
+			Map<String,Path> dependencies = new LinkedHashMap<>();
+			for (String moduleSpecifier : moduleSpecifiers)
+				dependencies.put(moduleSpecifier, resolveDependency(path, moduleSpecifier, pathCache));
+			return dependencies;
+		} catch (Exception e) {
+			throw new Exception("Path"+path, e);
+		}
+	}
+	
+	/*
+	 * Without a shared path resolution cache every directory is still
+	 * listed only once per graph resolution.
+	 */
+	public DependencyGraph resolveGraph(Path root) throws Exception {
+		return resolveGraph(root, moduleSpecifiersCache, pathResolutionCache);
+	}
+	
+	DependencyGraph resolveGraph(Path root, ModuleSpecifiersCache cache, PathResolutionCache pathResolutionCache) throws Exception {
+		PathResolutionCache pathCache = (pathResolutionCache == null) ?
+			new PathResolutionCache() : pathResolutionCache;
+		Path path = getAbsoluteExistingPath(root.normalize(), pathCache);
+		if (nodeTreeResolver) return resolveNodeTree(path);
+		if (executorService != null)
+			return resolveGraph(path, executorService, cache, pathCache);
+		if (parallelism > 1) {
+			ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+			try {
+				return resolveGraph(path, executor, cache, pathCache);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		DependencyGraph graph = new DependencyGraph(path);
+		Deque<Path> queue = new ArrayDeque<>();
+		queue.add(path);
+		while (!queue.isEmpty()) {
+			Path module = queue.poll();
+			Map<String,Path> dependencies = resolveDependencies(module, cache, pathCache);
+			for (Path dependency : dependencies.values())
+				if (graph.addModule(dependency)) queue.add(dependency);
+			graph.setDependencies(module, dependencies);
+		}
+		return graph;
+	}
+	
+	private DependencyGraph resolveGraph(Path path, ExecutorService executor, ModuleSpecifiersCache cache,
+			PathResolutionCache pathCache) throws Exception {
+		DependencyGraph graph = new DependencyGraph(path);
+		CompletionService<Map.Entry<Path,Map<String,Path>>> completionService =
+			new ExecutorCompletionService<>(executor);
+		List<Future<Map.Entry<Path,Map<String,Path>>>> futures = new ArrayList<>();
+		futures.add(completionService.submit(() ->
+			new SimpleImmutableEntry<>(path, resolveDependencies(path, cache, pathCache))));
+		int pending = 1;
+		try {
+			while (pending > 0) {
+				Map.Entry<Path,Map<String,Path>> resolved;
+				try {
+					resolved = completionService.take().get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+					throw e;
+				}
+				pending--;
+				for (Path dependency : resolved.getValue().values()) {
+					if (graph.addModule(dependency)) {
+						futures.add(completionService.submit(() ->
+							new SimpleImmutableEntry<>(dependency, resolveDependencies(dependency, cache, pathCache))));
+						pending++;
+					}
+				}
+				graph.setDependencies(resolved.getKey(), resolved.getValue());
+			}
+			return graph;
+		} finally {
+			if (pending > 0)
+				futures.forEach(future -> future.cancel(true));
+		}
+	}
+	
+	public Map<Path,Map<String,Path>> resolve(Path root) throws Exception {
+		return resolveGraph(root).toDependenciesMap();
 	}
 }
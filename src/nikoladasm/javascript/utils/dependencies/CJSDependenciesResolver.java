@@ -18,7 +18,6 @@
 
 package nikoladasm.javascript.utils.dependencies;
 
-import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -240,35 +239,16 @@ public class CJSDependenciesResolver extends BaseJSDependenciesResolver {
 	}
 	
 	@Override
-	protected void buildIncludesNodeTree(DependenciesNode parent) throws Exception {
-		try {
-			String source = fileReader.read(parent.path);
-			Script script = Parser.parseScript(source);
-			List<String> requireFunctionArguments = new LinkedList<>();
-			for (Statement statement : script.statements)
-				parseStatement(statement, requireFunctionArguments);
-			for (String requireFunctionArgument : requireFunctionArguments) {
-				String dependency;
-				if (requireFunctionArgument.startsWith("./"))
-					dependency = requireFunctionArgument.substring(2);
-				else
-					dependency = requireFunctionArgument;
-				Path require =
-					getAbsoluteExistingPath(parent.path.getParent().resolve(dependency).normalize());
-				parent.dependenciesMap.put(requireFunctionArgument, require);
-				DependenciesNode node = parent.root.getNode(require);
-				if (node != null) {
-					parent.childNodes.add(node);
-				} else {
-					node = new DependenciesNode();
-					node.root = parent.root;
-					node.path = require;
-					parent.childNodes.add(node);
-					buildIncludesNodeTree(node);
-				}
-			}
-		} catch (Exception e) {
-			throw new Exception("Path"+parent.path, e);
-		}
+	protected List<String> moduleSpecifiers(String source) throws Exception {
+		Script script = Parser.parseScript(source);
+		List<String> requireFunctionArguments = new LinkedList<>();
+		for (Statement statement : script.statements)
+			parseStatement(statement, requireFunctionArguments);
+		return requireFunctionArguments;
+	}
+	
+	@Override
+	protected List<String> scanModuleSpecifiers(String source) {
+		return ModuleSpecifierScanner.scanRequires(source);
 	}
 }
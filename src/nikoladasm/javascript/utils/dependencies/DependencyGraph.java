@@ -0,0 +1,228 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils.dependencies;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DependencyGraph {
+
+	private final Path root;
+	private final Map<Path,Map<String,Path>> dependencies = new LinkedHashMap<>();
+	private final Map<Path,Set<Path>> dependents = new HashMap<>();
+
+	public DependencyGraph(Path root) {
+		this.root = root;
+		addModule(root);
+	}
+
+	/*
+	 * Copy detached from later updates; graphs are only modified by the
+	 * resolvers, so it can be handed to other threads.
+	 */
+	public DependencyGraph snapshot() {
+		DependencyGraph snapshot = new DependencyGraph(root);
+		this.dependencies.forEach((module, moduleDependencies) ->
+			snapshot.dependencies.put(module, new LinkedHashMap<>(moduleDependencies)));
+		this.dependents.forEach((module, moduleDependents) ->
+			snapshot.dependents.put(module, new LinkedHashSet<>(moduleDependents)));
+		return snapshot;
+	}
+
+	public Path root() {
+		return root;
+	}
+
+	boolean addModule(Path module) {
+		if (dependencies.containsKey(module)) return false;
+		dependencies.put(module, new LinkedHashMap<>());
+		return true;
+	}
+
+	void setDependencies(Path module, Map<String,Path> moduleDependencies) {
+		Map<String,Path> previous = dependencies.put(module, moduleDependencies);
+		if (previous != null)
+			for (Path dependency : previous.values()) {
+				Set<Path> moduleDependents = dependents.get(dependency);
+				if (moduleDependents != null) moduleDependents.remove(module);
+			}
+		for (Path dependency : moduleDependencies.values()) {
+			addModule(dependency);
+			dependents.computeIfAbsent(dependency, key -> new LinkedHashSet<>()).add(module);
+		}
+	}
+
+	void removeModule(Path module) {
+		dependents.remove(module);
+		Map<String,Path> previous = dependencies.remove(module);
+		if (previous != null)
+			for (Path dependency : previous.values()) {
+				Set<Path> moduleDependents = dependents.get(dependency);
+				if (moduleDependents != null) moduleDependents.remove(module);
+			}
+	}
+
+	public boolean contains(Path module) {
+		return dependencies.containsKey(module);
+	}
+
+	public int size() {
+		return dependencies.size();
+	}
+
+	public Set<Path> modules() {
+		return Collections.unmodifiableSet(dependencies.keySet());
+	}
+
+	public Map<String,Path> dependencies(Path module) {
+		Map<String,Path> moduleDependencies = dependencies.get(module);
+		return (moduleDependencies == null) ?
+			Collections.emptyMap() : Collections.unmodifiableMap(moduleDependencies);
+	}
+
+	public Set<Path> dependents(Path module) {
+		Set<Path> moduleDependents = dependents.get(module);
+		return (moduleDependents == null) ?
+			Collections.emptySet() : Collections.unmodifiableSet(moduleDependents);
+	}
+
+	public Set<Path> transitiveDependents(Path module) {
+		Set<Path> result = new LinkedHashSet<>();
+		Deque<Path> queue = new ArrayDeque<>();
+		queue.add(module);
+		while (!queue.isEmpty())
+			for (Path dependent : dependents(queue.poll()))
+				if (result.add(dependent)) queue.add(dependent);
+		return result;
+	}
+
+	public Set<Path> transitiveDependencies(Path module) {
+		Set<Path> result = new LinkedHashSet<>();
+		Deque<Path> queue = new ArrayDeque<>();
+		queue.add(module);
+		while (!queue.isEmpty())
+			for (Path dependency : dependencies(queue.poll()).values())
+				if (result.add(dependency)) queue.add(dependency);
+		return result;
+	}
+
+	public List<Path> topologicalOrder() {
+		List<Path> order = new ArrayList<>(dependencies.size());
+		Set<Path> visited = new LinkedHashSet<>();
+		Deque<Path> stack = new ArrayDeque<>();
+		Deque<Iterator<Path>> iterators = new ArrayDeque<>();
+		List<Path> starts = new ArrayList<>();
+		starts.add(root);
+		starts.addAll(dependencies.keySet());
+		for (Path start : starts) {
+			if (!visited.add(start)) continue;
+			stack.push(start);
+			iterators.push(dependencies(start).values().iterator());
+			while (!stack.isEmpty()) {
+				Iterator<Path> iterator = iterators.peek();
+				if (iterator.hasNext()) {
+					Path next = iterator.next();
+					if (visited.add(next)) {
+						stack.push(next);
+						iterators.push(dependencies(next).values().iterator());
+					}
+				} else {
+					order.add(stack.pop());
+					iterators.pop();
+				}
+			}
+		}
+		return order;
+	}
+
+	public List<List<Path>> cycles() {
+		List<List<Path>> cycles = new ArrayList<>();
+		Map<Path,Integer> indexes = new HashMap<>();
+		Map<Path,Integer> lowLinks = new HashMap<>();
+		Set<Path> onStack = new LinkedHashSet<>();
+		Deque<Path> componentStack = new ArrayDeque<>();
+		Deque<Path> callStack = new ArrayDeque<>();
+		Deque<Iterator<Path>> iterators = new ArrayDeque<>();
+		int index = 0;
+		for (Path start : dependencies.keySet()) {
+			if (indexes.containsKey(start)) continue;
+			indexes.put(start, index);
+			lowLinks.put(start, index++);
+			componentStack.push(start);
+			onStack.add(start);
+			callStack.push(start);
+			iterators.push(dependencies(start).values().iterator());
+			while (!callStack.isEmpty()) {
+				Path module = callStack.peek();
+				Iterator<Path> iterator = iterators.peek();
+				if (iterator.hasNext()) {
+					Path next = iterator.next();
+					if (!indexes.containsKey(next)) {
+						indexes.put(next, index);
+						lowLinks.put(next, index++);
+						componentStack.push(next);
+						onStack.add(next);
+						callStack.push(next);
+						iterators.push(dependencies(next).values().iterator());
+					} else if (onStack.contains(next)) {
+						lowLinks.put(module, Math.min(lowLinks.get(module), indexes.get(next)));
+					}
+					continue;
+				}
+				callStack.pop();
+				iterators.pop();
+				if (!callStack.isEmpty()) {
+					Path parent = callStack.peek();
+					lowLinks.put(parent, Math.min(lowLinks.get(parent), lowLinks.get(module)));
+				}
+				if (lowLinks.get(module).equals(indexes.get(module))) {
+					List<Path> component = new ArrayList<>();
+					Path member;
+					do {
+						member = componentStack.pop();
+						onStack.remove(member);
+						component.add(member);
+					} while (!member.equals(module));
+					if (component.size() > 1 || dependencies(module).containsValue(module)) {
+						Collections.reverse(component);
+						cycles.add(component);
+					}
+				}
+			}
+		}
+		return cycles;
+	}
+
+	public Map<Path,Map<String,Path>> toDependenciesMap() {
+		Map<Path,Map<String,Path>> dependenciesMap = new LinkedHashMap<>();
+		dependencies.forEach((module, moduleDependencies) ->
+			dependenciesMap.put(module, new LinkedHashMap<>(moduleDependencies)));
+		return dependenciesMap;
+	}
+}
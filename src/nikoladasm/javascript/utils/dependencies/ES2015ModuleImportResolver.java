@@ -18,48 +18,56 @@
 
 package nikoladasm.javascript.utils.dependencies;
 
-import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
 
 import com.shapesecurity.shift.ast.*;
 import com.shapesecurity.shift.parser.Parser;
 
+/*
+ * Plain imports only by default. With reExports set, namespace imports
+ * and export ... from declarations count too, as they load modules just
+ * the same once compiled to CommonJS.
+ */
 public class ES2015ModuleImportResolver extends BaseJSDependenciesResolver {
 	
+	private boolean reExports;
+	
 	public ES2015ModuleImportResolver(SourceFileReader fileReader) {
 		super(fileReader);
 	}
 	
+	public ES2015ModuleImportResolver reExports(boolean reExports) {
+		this.reExports = reExports;
+		return this;
+	}
+	
+	public boolean reExports() {
+		return reExports;
+	}
+	
 	@Override
-	protected void buildIncludesNodeTree(DependenciesNode parent) throws Exception {
-		try {
-			String source = fileReader.read(parent.path);
-			Module module = Parser.parseModule(source);
-			for (ImportDeclarationExportDeclarationStatement astNode : module.items) {
-				if (astNode instanceof Import) {
-					Import moduleImport = (Import) astNode;
-					String moduleSpecifier = moduleImport.moduleSpecifier;
-					String dependency;
-					if (moduleSpecifier.startsWith("./"))
-						dependency = moduleSpecifier.substring(2);
-					else
-						dependency = moduleSpecifier;
-					Path include =
-						getAbsoluteExistingPath(parent.path.getParent().resolve(dependency).normalize());
-					parent.dependenciesMap.put(moduleSpecifier, include);
-					DependenciesNode node = parent.root.getNode(include);
-					if (node != null) {
-						parent.childNodes.add(node);
-					} else {
-						node = new DependenciesNode();
-						node.root = parent.root;
-						node.path = include;
-						parent.childNodes.add(node);
-						buildIncludesNodeTree(node);
-					}
-				}
+	protected List<String> moduleSpecifiers(String source) throws Exception {
+		Module module = Parser.parseModule(source);
+		List<String> moduleSpecifiers = new LinkedList<>();
+		for (ImportDeclarationExportDeclarationStatement astNode : module.items) {
+			if (astNode instanceof Import) {
+				moduleSpecifiers.add(((Import) astNode).moduleSpecifier);
+			} else if (reExports) {
+				if (astNode instanceof ImportNamespace)
+					moduleSpecifiers.add(((ImportNamespace) astNode).moduleSpecifier);
+				else if (astNode instanceof ExportAllFrom)
+					moduleSpecifiers.add(((ExportAllFrom) astNode).moduleSpecifier);
+				else if (astNode instanceof ExportFrom && ((ExportFrom) astNode).moduleSpecifier.isJust())
+					moduleSpecifiers.add(((ExportFrom) astNode).moduleSpecifier.just());
 			}
-		} catch (Exception e) {
-			throw new Exception("Path"+parent.path, e);
 		}
+		return moduleSpecifiers;
+	}
+	
+	@Override
+	protected List<String> scanModuleSpecifiers(String source) {
+		return reExports ?
+			ModuleSpecifierScanner.scanModuleRequests(source) : ModuleSpecifierScanner.scanImports(source);
 	}
 }
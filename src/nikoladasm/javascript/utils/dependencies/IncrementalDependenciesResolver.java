@@ -0,0 +1,181 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils.dependencies;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class IncrementalDependenciesResolver {
+
+	private final BaseJSDependenciesResolver resolver;
+	private final ModuleSpecifiersCache cache;
+	private final PathResolutionCache pathCache;
+	private final Path root;
+	private DependencyGraph graph;
+
+	/*
+	 * Caches already set on the resolver are used, otherwise private ones;
+	 * the resolver itself isn't changed.
+	 */
+	public IncrementalDependenciesResolver(BaseJSDependenciesResolver resolver, Path root) {
+		this.resolver = resolver;
+		this.cache = (resolver.moduleSpecifiersCache() == null) ?
+			new ModuleSpecifiersCache() : resolver.moduleSpecifiersCache();
+		this.pathCache = (resolver.pathResolutionCache() == null) ?
+			new PathResolutionCache() : resolver.pathResolutionCache();
+		this.root = root;
+	}
+
+	public BaseJSDependenciesResolver resolver() {
+		return resolver;
+	}
+
+	public synchronized DependencyGraph graph() {
+		return graph;
+	}
+
+	/*
+	 * A full resolve probes the file system afresh, so besides the changed
+	 * modules it re-resolves those whose imports now resolve to another
+	 * file, such as a new x.js next to the x.jsx that "./x" resolved to.
+	 */
+	public synchronized DependencyGraph resolve() throws Exception {
+		pathCache.clear();
+		if (graph == null) {
+			graph = resolver.resolveGraph(root, cache, pathCache);
+			return graph;
+		}
+		Set<Path> modules = new LinkedHashSet<>(changedModules());
+		modules.addAll(redirectedImporters());
+		return update(modules);
+	}
+
+	private Set<Path> redirectedImporters() {
+		Set<Path> importers = new LinkedHashSet<>();
+		for (Path module : graph.modules()) {
+			for (Map.Entry<String,Path> dependency : graph.dependencies(module).entrySet()) {
+				Path resolved;
+				try {
+					resolved = resolver.resolveDependency(module, dependency.getKey(), pathCache);
+				} catch (IllegalArgumentException e) {
+					resolved = null;
+				}
+				if (!dependency.getValue().equals(resolved)) {
+					importers.add(module);
+					break;
+				}
+			}
+		}
+		return importers;
+	}
+	
+	public synchronized List<Path> changedModules() {
+		List<Path> changedModules = new ArrayList<>();
+		if (graph == null) return changedModules;
+		for (Path module : graph.modules())
+			if (cache.isChanged(module)) changedModules.add(module);
+		return changedModules;
+	}
+
+	/*
+	 * Paths created, modified or deleted since the last resolution, not
+	 * only modules: a new file can change how a specifier resolves.
+	 */
+	public synchronized void invalidatePaths(Collection<Path> changedPaths) {
+		for (Path path : changedPaths)
+			pathCache.invalidate(path);
+	}
+
+	/*
+	 * Modules with an import that one of the paths now takes over, such as
+	 * a new x.js next to the x.jsx that "./x" resolved to so far.
+	 */
+	public synchronized Set<Path> importersOf(Collection<Path> paths) {
+		Set<Path> importers = new LinkedHashSet<>();
+		if (graph == null || paths.isEmpty()) return importers;
+		Set<Path> changedPaths = new HashSet<>();
+		for (Path path : paths)
+			changedPaths.add(path.toAbsolutePath().normalize());
+		for (Path module : graph.modules()) {
+			for (Map.Entry<String,Path> dependency : graph.dependencies(module).entrySet()) {
+				boolean takenOver = false;
+				for (Path candidate : resolver.candidatePaths(module, dependency.getKey())) {
+					if (candidate.equals(dependency.getValue())) break;
+					if (changedPaths.contains(candidate)) {
+						takenOver = true;
+						break;
+					}
+				}
+				if (takenOver) {
+					importers.add(module);
+					break;
+				}
+			}
+		}
+		return importers;
+	}
+
+	public synchronized DependencyGraph update(Collection<Path> changedModules) throws Exception {
+		if (graph == null) return resolve();
+		Set<Path> modulesToResolve = new LinkedHashSet<>();
+		for (Path changedModule : changedModules) {
+			Path module = changedModule.toAbsolutePath().normalize();
+			pathCache.invalidate(module);
+			if (!graph.contains(module)) continue;
+			if (Files.exists(module)) {
+				modulesToResolve.add(module);
+			} else {
+				cache.invalidate(module);
+				modulesToResolve.addAll(graph.dependents(module));
+			}
+		}
+		Deque<Path> queue = new ArrayDeque<>(modulesToResolve);
+		while (!queue.isEmpty()) {
+			Path module = queue.poll();
+			Map<String,Path> dependencies;
+			try {
+				dependencies = resolver.resolveDependencies(module, cache, pathCache);
+			} catch (Exception e) {
+				cache.invalidate(module);
+				throw e;
+			}
+			for (Path dependency : dependencies.values())
+				if (graph.addModule(dependency)) queue.add(dependency);
+			graph.setDependencies(module, dependencies);
+		}
+		Set<Path> reachable = graph.transitiveDependencies(graph.root());
+		reachable.add(graph.root());
+		for (Path module : new ArrayList<>(graph.modules())) {
+			if (!reachable.contains(module)) {
+				graph.removeModule(module);
+				cache.invalidate(module);
+			}
+		}
+		return graph;
+	}
+}
@@ -0,0 +1,659 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils.dependencies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Token level scanner that extracts module specifiers without building
+ * an AST. It returns null whenever the source can't be tokenized with
+ * certainty (an ambiguous regular expression, an unterminated literal,
+ * an escaped specifier), and callers fall back to the full parser.
+ * Like the parser based resolver, it reports the specifiers of plain
+ * imports only; namespace imports and re-exports are scanned but skipped,
+ * unless scanModuleRequests asks for every module the source loads.
+ * The CommonJS parser walk skips function and class declarations, concise
+ * arrow bodies, template substitutions, parameter defaults, computed keys
+ * and assignment targets, so a require call in any of them makes the scan
+ * undecidable too; scanRequireCalls reports every call regardless.
+ */
+public class ModuleSpecifierScanner {
+
+	/*
+	 * A require('...') call with a single string argument; start and end
+	 * delimit the whole call, from the identifier to the closing paren.
+	 */
+	public static class RequireCall {
+
+		public final int start;
+		public final int end;
+		public final String moduleSpecifier;
+
+		RequireCall(int start, int end, String moduleSpecifier) {
+			this.start = start;
+			this.end = end;
+			this.moduleSpecifier = moduleSpecifier;
+		}
+	}
+
+	private static final int NONE = 0;
+	private static final int IDENTIFIER = 1;
+	private static final int NUMBER = 2;
+	private static final int STRING = 3;
+	private static final int TEMPLATE = 4;
+	private static final int REGEX = 5;
+	private static final int PUNCTUATOR = 6;
+
+	private static final int BRACE = 0;
+	private static final int TEMPLATE_SUBSTITUTION = 1;
+	private static final int DECLARATION_BODY = 2;
+
+	private static final int STATE_NONE = 0;
+	private static final int STATE_IMPORT = 1;
+	private static final int STATE_IMPORT_CLAUSE = 2;
+	private static final int STATE_EXPORT = 3;
+	private static final int STATE_EXPORT_CLAUSE = 4;
+	private static final int STATE_EXPORT_CLAUSE_END = 5;
+	private static final int STATE_EXPORT_ALL = 6;
+	private static final int STATE_EXPORT_ALL_AS = 7;
+	private static final int STATE_EXPORT_ALL_NAME = 8;
+	private static final int STATE_FROM = 9;
+	private static final int STATE_REQUIRE = 10;
+	private static final int STATE_REQUIRE_OPEN = 11;
+	private static final int STATE_REQUIRE_ARGUMENT = 12;
+
+	private static final Set<String> CONTROL_KEYWORDS = new HashSet<>(Arrays.asList(
+		"if", "while", "for", "with"));
+	private static final Set<String> EXPRESSION_PRECEDING_KEYWORDS = new HashSet<>(Arrays.asList(
+		"return", "typeof", "instanceof", "in", "new", "delete", "void",
+		"throw", "case", "yield", "extends"));
+	private static final String EXPRESSION_PRECEDING_PUNCTUATORS = "([,=?!&|+-*%~^<>";
+	private static final String COMPOUND_ASSIGNMENT_OPERATORS = "+-*/%&|^<>";
+	private static final Set<String> REGEX_PRECEDING_KEYWORDS = new HashSet<>(Arrays.asList(
+		"return", "typeof", "instanceof", "in", "of", "new", "delete", "void",
+		"throw", "case", "do", "else", "yield", "await", "extends"));
+
+	private final String source;
+	private final int length;
+	private final boolean modules;
+	private final boolean parserCoverage;
+	private final boolean reExports;
+	private final List<String> moduleSpecifiers = new ArrayList<>();
+	private final List<RequireCall> requireCalls = new ArrayList<>();
+	private int position;
+	private int[] braceStack = new int[16];
+	private int braceDepth;
+	private boolean[] parenStack = new boolean[16];
+	private boolean[] parenRequireStack = new boolean[16];
+	private int parenDepth;
+	private boolean controlParenClosed;
+	private boolean requireParenClosed;
+	private int bracketDepth;
+	private char[] containerStack = new char[16];
+	private int containerDepth;
+	private boolean undecidable;
+
+	private int type = NONE;
+	private int start;
+	private int end;
+	private boolean escaped;
+	private int previousType = NONE;
+	private int previousStart;
+	private int previousEnd;
+
+	private int state = STATE_NONE;
+	private int clauseDepth;
+	private String pendingSpecifier;
+	private int requireStart;
+	private boolean collected;
+
+	private boolean requireUnwalked;
+	private boolean arrayBracket;
+	private boolean declaration;
+	private int declarationParenDepth;
+	private int declarationBraceDepth;
+	private int arrow;
+	private boolean conciseArrow;
+	private int arrowParenDepth;
+	private int arrowBraceDepth;
+	private int arrowBracketDepth;
+	private boolean afterRequire;
+	private int requireParenDepth;
+	private int requireBraceDepth;
+	private int requireBracketDepth;
+
+	public static List<String> scanImports(String source) {
+		return new ModuleSpecifierScanner(source, true, false, false).scan();
+	}
+
+	public static List<String> scanModuleRequests(String source) {
+		return new ModuleSpecifierScanner(source, true, false, true).scan();
+	}
+
+	public static List<String> scanRequires(String source) {
+		return new ModuleSpecifierScanner(source, false, true, false).scan();
+	}
+
+	public static List<RequireCall> scanRequireCalls(String source) {
+		ModuleSpecifierScanner scanner = new ModuleSpecifierScanner(source, false, false, false);
+		return (scanner.scan() == null) ? null : scanner.requireCalls;
+	}
+
+	private ModuleSpecifierScanner(String source, boolean modules, boolean parserCoverage, boolean reExports) {
+		this.source = source;
+		this.length = source.length();
+		this.modules = modules;
+		this.parserCoverage = parserCoverage;
+		this.reExports = reExports;
+	}
+
+	private List<String> scan() {
+		if (source.startsWith("#!")) skipLine();
+		while (!undecidable && next()) {
+			if (modules) {
+				if (braceDepth == 0 || state != STATE_NONE) moduleToken();
+			} else {
+				if (parserCoverage) coverageToken();
+				requireToken();
+			}
+			previousType = type;
+			previousStart = start;
+			previousEnd = end;
+		}
+		if (undecidable || state != STATE_NONE) return null;
+		return moduleSpecifiers;
+	}
+
+	private boolean is(String text) {
+		return end - start == text.length() && source.regionMatches(start, text, 0, text.length());
+	}
+
+	private boolean is(char ch) {
+		return type == PUNCTUATOR && end - start == 1 && source.charAt(start) == ch;
+	}
+
+	private boolean isIdentifier(String text) {
+		return type == IDENTIFIER && is(text);
+	}
+
+	private boolean previousIs(char ch) {
+		return previousType == PUNCTUATOR && previousEnd - previousStart == 1 && source.charAt(previousStart) == ch;
+	}
+
+	private String stringValue() {
+		if (escaped) {
+			undecidable = true;
+			return null;
+		}
+		return source.substring(start + 1, end - 1);
+	}
+
+	private void moduleToken() {
+		switch (state) {
+			case STATE_NONE :
+				if (previousIs('.')) return;
+				if (isIdentifier("import")) {
+					state = STATE_IMPORT;
+					collected = true;
+				} else if (isIdentifier("export")) {
+					state = STATE_EXPORT;
+					collected = false;
+				}
+				return;
+			case STATE_IMPORT :
+				if (type == STRING) {
+					addSpecifier(stringValue());
+				} else {
+					state = STATE_IMPORT_CLAUSE;
+					clauseDepth = 0;
+					importClauseToken();
+				}
+				return;
+			case STATE_IMPORT_CLAUSE :
+				importClauseToken();
+				return;
+			case STATE_EXPORT :
+				if (is('{')) {
+					state = STATE_EXPORT_CLAUSE;
+					clauseDepth = 1;
+				} else if (is('*')) {
+					state = STATE_EXPORT_ALL;
+				} else {
+					state = STATE_NONE;
+				}
+				return;
+			case STATE_EXPORT_CLAUSE :
+				if (is('{')) clauseDepth++;
+				else if (is('}') && --clauseDepth == 0) state = STATE_EXPORT_CLAUSE_END;
+				else if (type != IDENTIFIER && !is(',')) undecidable = true;
+				return;
+			case STATE_EXPORT_CLAUSE_END :
+				if (isIdentifier("from")) {
+					state = STATE_FROM;
+				} else {
+					state = STATE_NONE;
+					if (braceDepth == 0) moduleToken();
+				}
+				return;
+			case STATE_EXPORT_ALL :
+				if (isIdentifier("from")) state = STATE_FROM;
+				else if (isIdentifier("as")) state = STATE_EXPORT_ALL_AS;
+				else undecidable = true;
+				return;
+			case STATE_EXPORT_ALL_AS :
+				if (type == IDENTIFIER) state = STATE_EXPORT_ALL_NAME;
+				else undecidable = true;
+				return;
+			case STATE_EXPORT_ALL_NAME :
+				if (isIdentifier("from")) state = STATE_FROM;
+				else undecidable = true;
+				return;
+			case STATE_FROM :
+				if (type == STRING) addSpecifier(stringValue());
+				else undecidable = true;
+				return;
+		}
+	}
+
+	private boolean previousIsIdentifier(String text) {
+		return previousType == IDENTIFIER && previousEnd - previousStart == text.length() &&
+			source.regionMatches(previousStart, text, 0, text.length());
+	}
+
+	private void importClauseToken() {
+		if (is('{')) {
+			clauseDepth++;
+		} else if (is('}')) {
+			if (--clauseDepth < 0) undecidable = true;
+		} else if (clauseDepth == 0 && isIdentifier("from") && !previousIsIdentifier("import") &&
+				(previousType == IDENTIFIER || previousIs('}'))) {
+			state = STATE_FROM;
+		} else if (is('*')) {
+			collected = false;
+		} else if (type != IDENTIFIER && !is(',')) {
+			undecidable = true;
+		}
+	}
+
+	private void addSpecifier(String specifier) {
+		if (specifier != null && (collected || reExports)) moduleSpecifiers.add(specifier);
+		state = STATE_NONE;
+	}
+
+	private void requireToken() {
+		switch (state) {
+			case STATE_REQUIRE :
+				state = STATE_NONE;
+				if (is('(')) {
+					state = STATE_REQUIRE_OPEN;
+					return;
+				}
+				break;
+			case STATE_REQUIRE_OPEN :
+				state = STATE_NONE;
+				/* The parser sees through the parens of require(('x')) */
+				if (parserCoverage && is('(')) undecidable = true;
+				if (type == STRING) {
+					pendingSpecifier = source.substring(start, end);
+					state = STATE_REQUIRE_ARGUMENT;
+					return;
+				}
+				break;
+			case STATE_REQUIRE_ARGUMENT :
+				state = STATE_NONE;
+				if (is(')')) {
+					if (pendingSpecifier.indexOf('\\') >= 0) undecidable = true;
+					else if (parserCoverage && isUnwalked()) undecidable = true;
+					else {
+						String moduleSpecifier = pendingSpecifier.substring(1, pendingSpecifier.length() - 1);
+						moduleSpecifiers.add(moduleSpecifier);
+						requireCalls.add(new RequireCall(requireStart, end, moduleSpecifier));
+						if (parenDepth > 0) parenRequireStack[parenDepth - 1] = true;
+						afterRequire = true;
+						requireParenDepth = parenDepth;
+						requireBraceDepth = braceDepth;
+						requireBracketDepth = bracketDepth;
+					}
+					return;
+				}
+				break;
+		}
+		if (isIdentifier("require") && !previousIs('.')) {
+			state = STATE_REQUIRE;
+			requireStart = start;
+			requireUnwalked = previousIs('[') && !arrayBracket || previousIsIdentifier("new") || previousIs('=') &&
+				previousStart > 0 && COMPOUND_ASSIGNMENT_OPERATORS.indexOf(source.charAt(previousStart - 1)) >= 0;
+		}
+	}
+
+	private boolean isUnwalked() {
+		if (requireUnwalked || declaration || conciseArrow) return true;
+		for (int i = 0; i < braceDepth; i++)
+			if (braceStack[i] != BRACE) return true;
+		return false;
+	}
+
+	private boolean isExpressionPosition() {
+		if (previousType == IDENTIFIER)
+			return EXPRESSION_PRECEDING_KEYWORDS.contains(source.substring(previousStart, previousEnd));
+		return previousType == PUNCTUATOR && previousEnd - previousStart == 1 &&
+			EXPRESSION_PRECEDING_PUNCTUATORS.indexOf(source.charAt(previousStart)) >= 0;
+	}
+
+	private boolean isFollowedBy(char ch) {
+		return position < length && source.charAt(position) == ch;
+	}
+
+	/*
+	 * Tracks the places the CommonJS parser walk doesn't look into; any
+	 * doubt there only costs a fallback to the parser.
+	 */
+	private void coverageToken() {
+		if (declaration && (parenDepth < declarationParenDepth || braceDepth < declarationBraceDepth))
+			declaration = false;
+		if (conciseArrow && (parenDepth < arrowParenDepth || braceDepth < arrowBraceDepth ||
+				bracketDepth < arrowBracketDepth || (is(',') || is(';')) && parenDepth == arrowParenDepth &&
+				braceDepth == arrowBraceDepth && bracketDepth == arrowBracketDepth))
+			conciseArrow = false;
+		if (afterRequire) afterRequireToken();
+		if (arrow == 2) {
+			arrow = 0;
+			if (!is('{')) conciseArrow = true;
+		}
+		if (is('{')) {
+			/* Parameter defaults, such as m(a = require('x')) { ... } */
+			if (previousIs(')') && requireParenClosed && !controlParenClosed) undecidable = true;
+			if (declaration && parenDepth == declarationParenDepth && braceDepth - 1 == declarationBraceDepth) {
+				braceStack[braceDepth - 1] = DECLARATION_BODY;
+				declaration = false;
+			}
+		} else if (is('=') && isFollowedBy('>')) {
+			if (previousIs(')') && requireParenClosed) undecidable = true;
+			arrow = 1;
+		} else if (arrow == 1 && is('>')) {
+			arrow = 2;
+			if (!conciseArrow) {
+				arrowParenDepth = parenDepth;
+				arrowBraceDepth = braceDepth;
+				arrowBracketDepth = bracketDepth;
+			}
+		} else if (is('[')) {
+			/* Array literal rather than a computed member or property name */
+			arrayBracket = (isExpressionPosition() || previousIs(':')) &&
+				!(previousIs(',') && enclosingContainer() == '{');
+		} else if ((isIdentifier("function") || isIdentifier("class")) && !previousIs('.') &&
+				!declaration && !isExpressionPosition()) {
+			declaration = true;
+			declarationParenDepth = parenDepth;
+			declarationBraceDepth = braceDepth;
+		}
+	}
+
+	/*
+	 * Assignments to a member of the required module, such as
+	 * require('x').y = 1, have the call in the unwalked target.
+	 */
+	private void afterRequireToken() {
+		if (parenDepth > requireParenDepth || braceDepth > requireBraceDepth || bracketDepth > requireBracketDepth)
+			return;
+		if (parenDepth < requireParenDepth || braceDepth < requireBraceDepth || bracketDepth < requireBracketDepth) {
+			afterRequire = false;
+		} else if (is('.') || is(')') || is(']') || type == IDENTIFIER && previousIs('.')) {
+			return;
+		} else if (is('=') && !isFollowedBy('=') && !isFollowedBy('>')) {
+			undecidable = true;
+		} else if (type == PUNCTUATOR && end - start == 1 &&
+				COMPOUND_ASSIGNMENT_OPERATORS.indexOf(source.charAt(start)) >= 0 && isFollowedBy('=')) {
+			undecidable = true;
+		}
+		afterRequire = false;
+	}
+
+	private void pushBrace(int kind) {
+		if (braceDepth == braceStack.length)
+			braceStack = Arrays.copyOf(braceStack, braceDepth * 2);
+		braceStack[braceDepth++] = kind;
+		pushContainer('{');
+	}
+
+	private void pushContainer(char ch) {
+		if (containerDepth == containerStack.length)
+			containerStack = Arrays.copyOf(containerStack, containerDepth * 2);
+		containerStack[containerDepth++] = ch;
+	}
+
+	private void popContainer() {
+		if (containerDepth > 0) containerDepth--;
+	}
+
+	/* The container around the one the current token has just opened */
+	private char enclosingContainer() {
+		return containerDepth > 1 ? containerStack[containerDepth - 2] : 0;
+	}
+
+	private boolean isWhitespace(char ch) {
+		return Character.isWhitespace(ch) || Character.isSpaceChar(ch) || ch == '\uFEFF';
+	}
+
+	private boolean isLineTerminator(char ch) {
+		return ch == '\n' || ch == '\r' || ch == '\u2028' || ch == '\u2029';
+	}
+
+	private void skipLine() {
+		while (position < length && !isLineTerminator(source.charAt(position))) position++;
+	}
+
+	private boolean skipWhitespaceAndComments() {
+		while (position < length) {
+			char ch = source.charAt(position);
+			if (isWhitespace(ch)) {
+				position++;
+			} else if (ch == '/' && position + 1 < length && source.charAt(position + 1) == '/') {
+				skipLine();
+			} else if (ch == '/' && position + 1 < length && source.charAt(position + 1) == '*') {
+				int close = source.indexOf("*/", position + 2);
+				if (close < 0) {
+					undecidable = true;
+					return false;
+				}
+				position = close + 2;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean next() {
+		if (!skipWhitespaceAndComments()) return false;
+		start = position;
+		escaped = false;
+		char ch = source.charAt(position);
+		if (Character.isJavaIdentifierStart(ch)) {
+			position++;
+			while (position < length && Character.isJavaIdentifierPart(source.charAt(position))) position++;
+			type = IDENTIFIER;
+		} else if (ch >= '0' && ch <= '9' || ch == '.' && position + 1 < length &&
+				Character.isDigit(source.charAt(position + 1))) {
+			position++;
+			while (position < length && (Character.isLetterOrDigit(source.charAt(position)) ||
+				source.charAt(position) == '.' || source.charAt(position) == '_')) position++;
+			type = NUMBER;
+		} else if (ch == '\'' || ch == '"') {
+			scanString(ch);
+			type = STRING;
+		} else if (ch == '`') {
+			position++;
+			scanTemplate();
+		} else if (ch == '}' && braceDepth > 0 && braceStack[braceDepth - 1] == TEMPLATE_SUBSTITUTION) {
+			braceDepth--;
+			popContainer();
+			position++;
+			scanTemplate();
+		} else if (ch == '/') {
+			scanSlash();
+		} else if (ch == '\\') {
+			undecidable = true;
+			return false;
+		} else {
+			scanPunctuator(ch);
+			type = PUNCTUATOR;
+		}
+		end = position;
+		return !undecidable;
+	}
+
+	private void scanString(char quote) {
+		position++;
+		while (position < length) {
+			char ch = source.charAt(position);
+			if (ch == quote) {
+				position++;
+				return;
+			} else if (ch == '\\') {
+				escaped = true;
+				position += 2;
+			} else if (ch == '\n' || ch == '\r') {
+				break;
+			} else {
+				position++;
+			}
+		}
+		undecidable = true;
+	}
+
+	private void scanTemplate() {
+		while (position < length) {
+			char ch = source.charAt(position);
+			if (ch == '`') {
+				position++;
+				type = TEMPLATE;
+				return;
+			} else if (ch == '\\') {
+				position += 2;
+			} else if (ch == '$' && position + 1 < length && source.charAt(position + 1) == '{') {
+				position += 2;
+				pushBrace(TEMPLATE_SUBSTITUTION);
+				type = PUNCTUATOR;
+				return;
+			} else {
+				position++;
+			}
+		}
+		undecidable = true;
+	}
+
+	private void scanPunctuator(char ch) {
+		position++;
+		if (ch == '.' && source.startsWith("..", position)) {
+			position += 2;
+		} else if ((ch == '+' || ch == '-') && position < length && source.charAt(position) == ch) {
+			position++;
+		} else if (ch == '(') {
+			if (parenDepth == parenStack.length) {
+				parenStack = Arrays.copyOf(parenStack, parenDepth * 2);
+				parenRequireStack = Arrays.copyOf(parenRequireStack, parenDepth * 2);
+			}
+			parenRequireStack[parenDepth] = false;
+			pushContainer('(');
+			parenStack[parenDepth++] = previousType == IDENTIFIER &&
+				CONTROL_KEYWORDS.contains(source.substring(previousStart, previousEnd));
+		} else if (ch == ')') {
+			popContainer();
+			controlParenClosed = false;
+			requireParenClosed = false;
+			if (parenDepth > 0) {
+				controlParenClosed = parenStack[--parenDepth];
+				requireParenClosed = parenRequireStack[parenDepth];
+				if (requireParenClosed && parenDepth > 0) parenRequireStack[parenDepth - 1] = true;
+			}
+		} else if (ch == '[') {
+			bracketDepth++;
+			pushContainer('[');
+		} else if (ch == ']') {
+			if (bracketDepth > 0) bracketDepth--;
+			popContainer();
+		} else if (ch == '{') {
+			pushBrace(BRACE);
+		} else if (ch == '}') {
+			if (braceDepth == 0) undecidable = true;
+			else braceDepth--;
+			popContainer();
+		}
+	}
+
+	private int regexEnd(int from) {
+		boolean inClass = false;
+		for (int i = from; i < length; i++) {
+			char ch = source.charAt(i);
+			if (isLineTerminator(ch)) return -1;
+			if (ch == '\\') i++;
+			else if (ch == '[') inClass = true;
+			else if (ch == ']') inClass = false;
+			else if (ch == '/' && !inClass) return i;
+		}
+		return -1;
+	}
+
+	private boolean regexAllowed() {
+		switch (previousType) {
+			case NONE :
+				return true;
+			case IDENTIFIER :
+				return REGEX_PRECEDING_KEYWORDS.contains(source.substring(previousStart, previousEnd));
+			case PUNCTUATOR :
+				if (previousIs(')')) return controlParenClosed;
+				if (previousIs('}') || previousEnd - previousStart == 2 &&
+						(source.startsWith("++", previousStart) || source.startsWith("--", previousStart))) {
+					int regexEnd = regexEnd(position + 1);
+					if (regexEnd < 0) return false;
+					for (int i = position + 1; i < regexEnd; i++) {
+						if ("'\"`/\\{}".indexOf(source.charAt(i)) >= 0) {
+							undecidable = true;
+							return false;
+						}
+					}
+					return false;
+				}
+				return !previousIs(']');
+			default :
+				return false;
+		}
+	}
+
+	private void scanSlash() {
+		if (regexAllowed()) {
+			int regexEnd = regexEnd(position + 1);
+			if (regexEnd < 0) {
+				undecidable = true;
+				return;
+			}
+			position = regexEnd + 1;
+			while (position < length && Character.isJavaIdentifierPart(source.charAt(position))) position++;
+			type = REGEX;
+		} else {
+			position++;
+			type = PUNCTUATOR;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils.dependencies;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class ModuleSpecifiersCache {
+
+	@FunctionalInterface
+	public static interface ModuleSpecifiersParser {
+		List<String> parse(String source) throws Exception;
+	}
+
+	private static class Entry {
+
+		private final long lastModified;
+		private final long size;
+		private final byte[] contentHash;
+		private final List<String> moduleSpecifiers;
+
+		private Entry(long lastModified, long size, byte[] contentHash, List<String> moduleSpecifiers) {
+			this.lastModified = lastModified;
+			this.size = size;
+			this.contentHash = contentHash;
+			this.moduleSpecifiers = moduleSpecifiers;
+		}
+
+		private boolean matches(BasicFileAttributes attributes) {
+			return attributes != null &&
+				lastModified == attributes.lastModifiedTime().toMillis() &&
+				size == attributes.size();
+		}
+	}
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private final ConcurrentMap<Path,Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private BasicFileAttributes attributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	private byte[] contentHash(String source) throws Exception {
+		return MessageDigest.getInstance(HASH_ALGORITHM).digest(source.getBytes(UTF_8));
+	}
+
+	public List<String> moduleSpecifiers(Path path, SourceFileReader reader, ModuleSpecifiersParser parser) throws Exception {
+		BasicFileAttributes attributes = attributes(path);
+		Entry entry = entries.get(path);
+		if (entry != null && entry.matches(attributes)) {
+			hits.incrementAndGet();
+			return entry.moduleSpecifiers;
+		}
+		String source = reader.read(path);
+		byte[] contentHash = contentHash(source);
+		long lastModified = (attributes == null) ? -1 : attributes.lastModifiedTime().toMillis();
+		long size = (attributes == null) ? -1 : attributes.size();
+		if (entry != null && Arrays.equals(entry.contentHash, contentHash)) {
+			hits.incrementAndGet();
+			entries.put(path, new Entry(lastModified, size, contentHash, entry.moduleSpecifiers));
+			return entry.moduleSpecifiers;
+		}
+		misses.incrementAndGet();
+		List<String> moduleSpecifiers = Collections.unmodifiableList(parser.parse(source));
+		entries.put(path, new Entry(lastModified, size, contentHash, moduleSpecifiers));
+		return moduleSpecifiers;
+	}
+
+	public boolean isChanged(Path path) {
+		Entry entry = entries.get(path);
+		return entry == null || !entry.matches(attributes(path));
+	}
+
+	public boolean contains(Path path) {
+		return entries.containsKey(path);
+	}
+
+	public void invalidate(Path path) {
+		entries.remove(path);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public void clear() {
+		entries.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+}
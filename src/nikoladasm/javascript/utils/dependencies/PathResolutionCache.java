@@ -0,0 +1,160 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nikoladasm.javascript.utils.dependencies;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nikoladasm.javascript.utils.MetricsListener;
+
+/*
+ * Resolved module paths keyed by the normalized candidate path (parent
+ * directory plus specifier), directory listings used to probe the
+ * candidates, so every directory is listed once until it is invalidated,
+ * and whether each listed candidate is a regular file. A name must match
+ * a directory entry exactly, case included, on any file system.
+ * Resolvers sharing a cache are expected to use the same file extensions.
+ */
+public class PathResolutionCache {
+
+	private final ConcurrentMap<Path,Path> resolutions = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Path,Set<String>> listings = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Path,Boolean> files = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong directoryListings = new AtomicLong();
+
+	/*
+	 * Names of all the entries in the directory; reading them doesn't stat
+	 * anything. Listed outside the map so that slow directory I/O doesn't
+	 * block other keys; two threads may list the same directory once.
+	 */
+	private Set<String> listing(Path directory, MetricsListener listener) {
+		Set<String> names = listings.get(directory);
+		if (names != null) return names;
+		directoryListings.incrementAndGet();
+		if (listener != null) listener.fileProbed(directory);
+		names = new HashSet<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path entry : stream)
+				names.add(entry.getFileName().toString());
+		} catch (IOException | SecurityException e) {
+			names = Collections.emptySet();
+		}
+		Set<String> listed = listings.putIfAbsent(directory, names);
+		return (listed == null) ? names : listed;
+	}
+
+	/*
+	 * Only a listed name is stat'ed, to tell files from directories and
+	 * follow symbolic links; both answers are kept.
+	 */
+	private boolean isFile(Path path, MetricsListener listener) {
+		Boolean file = files.get(path);
+		if (file != null) return file;
+		Path directory = path.getParent();
+		Path fileName = path.getFileName();
+		if (directory == null || fileName == null) return false;
+		if (listing(directory, listener).contains(fileName.toString())) {
+			if (listener != null) listener.fileProbed(path);
+			file = Files.isRegularFile(path);
+		} else {
+			file = false;
+		}
+		files.put(path, file);
+		return file;
+	}
+
+	public Path resolve(Path path, String[] extensions) {
+		return resolve(path, extensions, null);
+	}
+
+	public Path resolve(Path path, String[] extensions, MetricsListener listener) {
+		Path resolved = resolutions.get(path);
+		if (resolved != null) {
+			hits.incrementAndGet();
+			if (listener != null) listener.cacheAccessed(MetricsListener.PATH_RESOLUTION_CACHE, true);
+			return resolved;
+		}
+		misses.incrementAndGet();
+		if (listener != null) listener.cacheAccessed(MetricsListener.PATH_RESOLUTION_CACHE, false);
+		if (isFile(path, listener)) {
+			resolved = path;
+		} else {
+			for (String extension : extensions) {
+				Path pathWithExtension = path.resolveSibling(path.getFileName() + extension);
+				if (isFile(pathWithExtension, listener)) {
+					resolved = pathWithExtension;
+					break;
+				}
+			}
+		}
+		if (resolved != null) resolutions.put(path, resolved);
+		return resolved;
+	}
+
+	/*
+	 * A created, modified or deleted entry changes the listing of its
+	 * directory; when the entry is itself a directory everything below it
+	 * goes too.
+	 */
+	public void invalidate(Path path) {
+		Path changed = path.toAbsolutePath().normalize();
+		Path directory = changed.getParent();
+		if (directory != null) listings.remove(directory);
+		listings.keySet().removeIf(key -> key.startsWith(changed));
+		files.keySet().removeIf(key ->
+			(directory != null && directory.equals(key.getParent())) || key.startsWith(changed));
+		resolutions.entrySet().removeIf(entry ->
+			(directory != null && directory.equals(entry.getKey().getParent())) ||
+			entry.getKey().startsWith(changed) || entry.getValue().startsWith(changed));
+	}
+
+	public int size() {
+		return resolutions.size();
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public long directoryListings() {
+		return directoryListings.get();
+	}
+
+	public void clear() {
+		resolutions.clear();
+		listings.clear();
+		files.clear();
+		hits.set(0);
+		misses.set(0);
+		directoryListings.set(0);
+	}
+}
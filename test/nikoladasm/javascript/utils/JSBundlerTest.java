@@ -0,0 +1,86 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JSBundlerTest {
+
+	private Path directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("js-utils-bundler").toRealPath();
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private Path write(String name, String source) throws IOException {
+		return Files.write(directory.resolve(name), source.getBytes(UTF_8));
+	}
+
+	@Test
+	public void rewritesResolvedRequires() throws IOException {
+		Path main = write("main.js", "var a = require('./a');\nmodule.exports = a;");
+		write("a.js", "module.exports = 1;");
+		String code = new JSUtils().bundler().bundle(main).code;
+		assertTrue(code.contains("var a = require(0);"));
+		assertFalse(code.contains("'./a'"));
+	}
+
+	@Test(expected = JSUtilsException.class)
+	public void failsOnRelativeRequireOutsideTheGraph() throws IOException {
+		Path main = write("main.js", "function lazy() { return require('./lazy'); }\nmodule.exports = lazy;");
+		write("lazy.js", "module.exports = 1;");
+		new JSUtils().bundler().bundle(main);
+	}
+
+	@Test
+	public void keepsBareRequiresOutsideTheGraph() throws IOException {
+		Path main = write("main.js", "function lazy() { return require('fs'); }\nmodule.exports = lazy;");
+		assertTrue(new JSUtils().bundler().bundle(main).code.contains("require('fs')"));
+	}
+
+	@Test
+	public void bundleGraphFollowsReExports() throws IOException {
+		Path main = write("main.js",
+			"import a from './a';\nimport * as b from './b';\nexport { c } from './c';\nexport * from './d';");
+		for (String name : new String[]{"a.js", "b.js", "c.js", "d.js"})
+			write(name, "export default 1;\nexport var c = 2;");
+		JSUtils jsUtils = new JSUtils();
+		assertEquals(2, jsUtils.getES2015DependencyGraph(main).size());
+		assertEquals(5, jsUtils.getES2015BundleGraph(main).size());
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nikoladasm.javascript.utils.JSWatcher.ChangeSet;
+import nikoladasm.javascript.utils.dependencies.ES2015ModuleImportResolver;
+import nikoladasm.javascript.utils.dependencies.IncrementalDependenciesResolver;
+
+public class JSWatcherTest {
+
+	private Path directory;
+	private JSWatcher watcher;
+	private final BlockingQueue<ChangeSet> changeSets = new LinkedBlockingQueue<>();
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("js-utils-watcher").toRealPath();
+		Files.createDirectory(directory.resolve("sub"));
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		if (watcher != null) watcher.close();
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private Path write(String name, String source) throws IOException {
+		return Files.write(directory.resolve(name), source.getBytes(UTF_8));
+	}
+
+	private JSWatcher watch(Path main) {
+		ES2015ModuleImportResolver resolver =
+			new ES2015ModuleImportResolver(path -> new String(Files.readAllBytes(path), UTF_8));
+		watcher = new JSWatcher(new IncrementalDependenciesResolver(resolver, main))
+			.debounceMillis(50)
+			.changeListener(changeSets::add);
+		return watcher;
+	}
+
+	private ChangeSet next() throws InterruptedException {
+		ChangeSet changeSet = changeSets.poll(10, TimeUnit.SECONDS);
+		assertNotNull("No change set", changeSet);
+		return changeSet;
+	}
+
+	@Test
+	public void reportsEditedModule() throws Exception {
+		Path main = write("main.js", "import a from './sub/a';");
+		Path a = write("sub/a.js", "export default 1;");
+		watch(main).start();
+		assertEquals(2, next().addedModules.size());
+		write("sub/a.js", "export default 12;");
+		ChangeSet changeSet = next();
+		assertTrue(changeSet.changedModules.contains(a));
+		assertTrue(changeSet.affectedModules.contains(main));
+	}
+
+	@Test
+	public void stopsWatchingDirectoriesWithoutModules() throws Exception {
+		Path main = write("main.js", "import a from './sub/a';");
+		Path a = write("sub/a.js", "export default 1;");
+		watch(main).start();
+		next();
+		write("main.js", "export default 2;");
+		assertTrue(next().removedModules.contains(a));
+		write("sub/b.js", "export default 3;");
+		assertNull(changeSets.poll(500, TimeUnit.MILLISECONDS));
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LineBreaksTest {
+
+	private static final String ALPHABET = "ab \n\r\u000B\u000C\u0085\u2028\u2029";
+	private static final String[] SEPARATORS = {"\n", "\r\n", "\r"};
+
+	private static String splitAndJoin(String source, String lineSeparator) {
+		StringBuilder sb = new StringBuilder();
+		for (String line : source.split("\\R"))
+			sb.append(line).append(lineSeparator);
+		return sb.toString();
+	}
+
+	private static String readAndJoin(String source, String lineSeparator) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(new StringReader(source))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+				sb.append(line).append(lineSeparator);
+		}
+		return sb.toString();
+	}
+
+	private static String randomSource(Random random) {
+		char[] chars = new char[random.nextInt(12)];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+		return new String(chars);
+	}
+
+	@Test
+	public void normalizeMatchesSplit() throws IOException {
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			String source = randomSource(random);
+			for (String lineSeparator : SEPARATORS) {
+				String expected = splitAndJoin(source, lineSeparator);
+				assertEquals(source, expected, LineBreaks.normalize(source, lineSeparator));
+				assertEquals(source, expected, LineBreaks.normalize(CharBuffer.wrap(source), lineSeparator));
+				StringWriter writer = new StringWriter();
+				LineBreaks.normalize(source, lineSeparator, writer);
+				assertEquals(source, expected, writer.toString());
+			}
+		}
+	}
+
+	@Test
+	public void normalizeLinesMatchesReadLine() throws IOException {
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			String source = randomSource(random);
+			for (String lineSeparator : SEPARATORS)
+				assertEquals(source, readAndJoin(source, lineSeparator),
+					LineBreaks.normalizeLines(source, lineSeparator));
+		}
+	}
+
+	@Test
+	public void returnsNormalizedSourceAsIs() {
+		String source = "a\nb\n";
+		assertSame(source, LineBreaks.normalize(source, "\n"));
+		assertSame(source, LineBreaks.normalizeLines(source, "\n"));
+		assertNotSame(source, LineBreaks.normalize(source, "\r\n"));
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistentTransformCacheTest {
+
+	private Path directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("js-utils-cache");
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		if (!Files.exists(directory)) return;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void returnsStoredEntry() {
+		PersistentTransformCache cache = new PersistentTransformCache(directory);
+		assertNull(cache.get("babel", "lib", "{}", "hash"));
+		cache.put("babel", "lib", "{}", "hash", "var x = 1;");
+		assertEquals("var x = 1;", cache.get("babel", "lib", "{}", "hash"));
+		assertNull(cache.get("babel", "lib", "{ compact: true }", "hash"));
+		assertEquals(1, cache.hits());
+		assertEquals(2, cache.misses());
+	}
+
+	@Test
+	public void replacingEntryKeepsSize() {
+		PersistentTransformCache cache = new PersistentTransformCache(directory);
+		for (int i = 0; i < 10; i++)
+			cache.put("babel", "lib", "{}", "hash", "0123456789");
+		assertEquals(10, cache.size());
+	}
+
+	@Test
+	public void prunesBelowMaxSize() {
+		PersistentTransformCache cache = new PersistentTransformCache(directory, 100);
+		for (int i = 0; i < 30; i++)
+			cache.put("babel", "lib", "{}", "hash"+i, "0123456789");
+		assertTrue(cache.size() <= 100);
+		assertNotNull(cache.get("babel", "lib", "{}", "hash29"));
+	}
+
+	@Test
+	public void putSurvivesRemovedDirectory() throws IOException {
+		PersistentTransformCache cache = new PersistentTransformCache(directory, 100);
+		cache.put("babel", "lib", "{}", "hash", "0123456789");
+		deleteDirectory();
+		for (int i = 0; i < 30; i++)
+			cache.put("babel", "lib", "{}", "hash"+i, "0123456789");
+		assertNotNull(cache.get("babel", "lib", "{}", "hash29"));
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProcessWorkerPoolTest {
+
+	private static final String SOURCE = "var a = 1;";
+
+	private ProcessWorkerPool pool;
+	private ExecutorService executor;
+
+	@Before
+	public void createPool() {
+		pool = new ProcessWorkerPool().size(1).warmUp(false);
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void closePool() {
+		executor.shutdownNow();
+		pool.close();
+	}
+
+	private String analyze(long timeoutMillis) throws Exception {
+		return pool.staticAnalyzeByJSHintScript(SOURCE, "{}", "{}", timeoutMillis);
+	}
+
+	@Test
+	public void replacesTimedOutWorker() throws Exception {
+		try {
+			analyze(1);
+			fail();
+		} catch (ScriptTimeoutException e) {
+		}
+		assertNotNull(analyze(0));
+	}
+
+	@Test
+	public void redispatchesJobsQueuedOnCrashedWorker() throws Exception {
+		Future<String> crashed = executor.submit(() -> analyze(1));
+		/* Still waiting for the JVM to start, so the next job queues behind it */
+		Thread.sleep(100);
+		Future<String> queued = executor.submit(() -> analyze(0));
+		try {
+			crashed.get();
+			fail();
+		} catch (Exception e) {
+			assertTrue(e.getCause() instanceof ScriptTimeoutException);
+		}
+		assertNotNull(queued.get());
+	}
+
+	@Test(expected = JSUtilsException.class)
+	public void failsWhenProcessCantStart() throws Exception {
+		pool.javaCommand("/nonexistent/java");
+		analyze(0);
+	}
+}
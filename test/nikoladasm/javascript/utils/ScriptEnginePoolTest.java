@@ -0,0 +1,123 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import nikoladasm.javascript.utils.ScriptLibrary.ScriptSource;
+
+public class ScriptEnginePoolTest {
+
+	private static final String LIBRARY = "test-pool";
+	private static final String FUNCTIONS =
+		"function add(a, b) { return a + b; }\n"+
+		"function spin() { for (;;) {} }";
+
+	private static ScriptEnginePool pool(int maxSize) {
+		return new ScriptEnginePool("test", maxSize, () -> new PooledScriptEngine(null, null));
+	}
+
+	private static ScriptLibrary library() {
+		return ScriptLibrary.library(LIBRARY, () -> singletonList(new ScriptSource(LIBRARY, FUNCTIONS)));
+	}
+
+	private static ScriptEnginePool scriptPool(int maxSize) {
+		return new ScriptEnginePool(LIBRARY, maxSize, () -> library().newInstance());
+	}
+
+	@Test
+	public void reusesReleasedEngine() {
+		ScriptEnginePool pool = pool(2);
+		PooledScriptEngine engine = pool.borrow();
+		pool.release(engine);
+		assertSame(engine, pool.borrow());
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void blocksWhenAllEnginesAreBorrowed() throws Exception {
+		ScriptEnginePool pool = pool(1);
+		PooledScriptEngine engine = pool.borrow();
+		CompletableFuture<PooledScriptEngine> waiting = CompletableFuture.supplyAsync(pool::borrow);
+		try {
+			waiting.get(200, TimeUnit.MILLISECONDS);
+			fail("Borrowed more engines than the pool size");
+		} catch (TimeoutException e) {}
+		pool.release(engine);
+		assertSame(engine, waiting.get(1, TimeUnit.SECONDS));
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void discardFreesSlot() throws Exception {
+		ScriptEnginePool pool = pool(1);
+		PooledScriptEngine engine = pool.borrow();
+		CompletableFuture<PooledScriptEngine> waiting = CompletableFuture.supplyAsync(pool::borrow);
+		pool.discard(engine);
+		assertNotSame(engine, waiting.get(1, TimeUnit.SECONDS));
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void prestartsUpToMaxSize() {
+		ScriptEnginePool pool = pool(2);
+		assertTrue(pool.prestartEngine());
+		assertTrue(pool.prestartEngine());
+		assertFalse(pool.prestartEngine());
+		assertEquals(2, pool.idle());
+	}
+
+	@Test
+	public void timeoutLeavesPoolUsable() throws Exception {
+		ScriptEnginePool pool = scriptPool(1);
+		ScriptLibrary library = library();
+		try {
+			pool.execute(engine -> engine.invoke("spin"), 200);
+			fail("Evaluation wasn't stopped");
+		} catch (ScriptTimeoutException e) {
+			assertEquals(200, e.timeoutMillis());
+		}
+		assertEquals(3, ((Number) pool.execute(engine -> engine.invoke("add", 1, 2), 5000)).intValue());
+		assertEquals(1, pool.size());
+		/* Nashorn can't cancel, so the evaluation was stopped and the library rebuilt */
+		assertTrue(library.isDiscarded());
+		assertNotSame(library, library());
+	}
+
+	@Test
+	public void dropsIdleEnginesOfDiscardedLibrary() throws Exception {
+		ScriptEnginePool pool = scriptPool(1);
+		assertTrue(pool.prestartEngine());
+		ScriptLibrary library = library();
+		library.discard();
+		PooledScriptEngine engine = pool.borrow();
+		assertNotSame(library, engine.library());
+		assertFalse(engine.library().isDiscarded());
+		pool.release(engine);
+		assertEquals(1, pool.size());
+		assertEquals(1, pool.idle());
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SourceMapTest {
+
+	private static String encode(int value) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		Base64VLQ.encode(sb, value);
+		return sb.toString();
+	}
+
+	private static String mappings(SourceMap map) {
+		String json = map.toString();
+		int start = json.indexOf("\"mappings\":\"") + "\"mappings\":\"".length();
+		return json.substring(start, json.indexOf('"', start));
+	}
+
+	@Test
+	public void encodesKnownValues() throws IOException {
+		assertEquals("A", encode(0));
+		assertEquals("C", encode(1));
+		assertEquals("D", encode(-1));
+		assertEquals("gB", encode(16));
+		assertEquals("2H", encode(123));
+	}
+
+	@Test
+	public void decodesWhatItEncodes() throws IOException {
+		int[] values = {0, 1, -1, 15, 16, -16, 31, 32, 1000, -1000, 65535,
+			Integer.MAX_VALUE, Integer.MIN_VALUE + 1, Integer.MIN_VALUE};
+		StringBuilder sb = new StringBuilder();
+		for (int value : values)
+			Base64VLQ.encode(sb, value);
+		int[] position = new int[1];
+		for (int value : values)
+			assertEquals(value, Base64VLQ.decode(sb, position));
+		assertEquals(sb.length(), position[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTruncatedValue() {
+		Base64VLQ.decode("g", new int[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidDigit() {
+		Base64VLQ.decode("A!", new int[]{1});
+	}
+
+	@Test
+	public void roundTripsMappings() {
+		SourceMapBuilder builder = new SourceMapBuilder("out.js", null)
+			.sourceContent("a.js", "var a = 1;");
+		builder.add(1, 0, "a.js", 1, 0, null);
+		builder.add(1, 4, "a.js", 1, 4, "a");
+		builder.add(3, 2, "b.js", 10, 8, "b");
+		builder.add(3, 0, "a.js", 2, 0, null);
+		SourceMap map = builder.build();
+		assertEquals(4, map.size());
+
+		SourceMap decoded = SourceMap.decode(map.file(), map.sources(), map.sourcesContent(),
+			map.names(), mappings(map));
+		assertEquals(map.toString(), decoded.toString());
+		assertEquals(asList("a.js", "b.js"), decoded.sources());
+		assertEquals(asList("var a = 1;", null), decoded.sourcesContent());
+
+		SourceMap.Mapping mapping = decoded.originalPositionFor(1, 6);
+		assertEquals("a.js", mapping.source);
+		assertEquals(1, mapping.line);
+		assertEquals(4, mapping.column);
+		assertEquals("a", mapping.name);
+		mapping = decoded.originalPositionFor(3, 1);
+		assertEquals(2, mapping.line);
+		assertNull(mapping.name);
+		assertEquals("b", decoded.originalPositionFor(3, 2).name);
+		assertNull(decoded.originalPositionFor(2, 0));
+	}
+
+	@Test
+	public void composesThroughOriginalMap() {
+		SourceMapBuilder first = new SourceMapBuilder("babel.js", null)
+			.sourceContent("src.js", "let x = 1;");
+		first.add(1, 0, "src.js", 1, 0, null);
+		first.add(1, 4, "src.js", 1, 4, "x");
+		SourceMap babel = first.build();
+
+		SourceMapBuilder second = new SourceMapBuilder("min.js", babel);
+		second.add(1, 0, "babel.js", 1, 0, null);
+		second.add(1, 2, "babel.js", 1, 4, "y");
+		second.add(2, 0, "babel.js", 5, 0, null);
+		SourceMap composed = second.build();
+
+		assertEquals(singletonList("src.js"), composed.sources());
+		assertEquals(singletonList("let x = 1;"), composed.sourcesContent());
+		assertEquals(2, composed.size());
+		SourceMap.Mapping mapping = composed.originalPositionFor(1, 2);
+		assertEquals("src.js", mapping.source);
+		assertEquals(4, mapping.column);
+		assertEquals("x", mapping.name);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils.dependencies;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BaseJSDependenciesResolverTest {
+
+	/* One specifier per line */
+	private static class LineResolver extends BaseJSDependenciesResolver {
+
+		private LineResolver() {
+			super(path -> new String(Files.readAllBytes(path), UTF_8));
+		}
+
+		@Override
+		protected List<String> moduleSpecifiers(String source) {
+			return source.isEmpty() ? Arrays.asList() : Arrays.asList(source.split("\n"));
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private static class NodeTreeResolver extends BaseJSDependenciesResolver {
+
+		private NodeTreeResolver() {
+			super(path -> new String(Files.readAllBytes(path), UTF_8));
+		}
+
+		@Override
+		protected void buildIncludesNodeTree(DependenciesNode parent) throws Exception {
+			String source = fileReader.read(parent.path);
+			for (String specifier : source.isEmpty() ? new String[0] : source.split("\n")) {
+				Path dependency = getAbsoluteExistingPath(parent.path.resolveSibling(specifier).normalize());
+				parent.dependenciesMap.put(specifier, dependency);
+				if (parent.root.getNode(dependency) != null) continue;
+				DependenciesNode node = new DependenciesNode();
+				node.root = parent.root;
+				node.path = dependency;
+				parent.childNodes.add(node);
+				buildIncludesNodeTree(node);
+			}
+		}
+	}
+
+	private Path directory;
+
+	@Before
+	public void createModules() throws IOException {
+		directory = Files.createTempDirectory("js-utils-resolver").toRealPath();
+		write("main.js", "./a\n./b");
+		write("a.js", "./b");
+		write("b.js", "./a");
+	}
+
+	@After
+	public void deleteModules() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private void write(String name, String source) throws IOException {
+		Files.write(directory.resolve(name), source.getBytes(UTF_8));
+	}
+
+	@Test
+	public void resolvesModuleSpecifiers() throws Exception {
+		Map<Path,Map<String,Path>> dependencies = new LineResolver().resolve(directory.resolve("main"));
+		assertEquals(3, dependencies.size());
+		assertEquals(directory.resolve("b.js"), dependencies.get(directory.resolve("main.js")).get("./b"));
+	}
+
+	@Test
+	public void resolvesDeprecatedNodeTree() throws Exception {
+		assertEquals(new LineResolver().resolve(directory.resolve("main")),
+			new NodeTreeResolver().resolve(directory.resolve("main")));
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils.dependencies;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DependencyGraphTest {
+
+	private static Path path(String name) {
+		return Paths.get("/project", name+".js");
+	}
+
+	private static void depends(DependencyGraph graph, String module, String... dependencies) {
+		Map<String,Path> moduleDependencies = new LinkedHashMap<>();
+		for (String dependency : dependencies)
+			moduleDependencies.put("./"+dependency, path(dependency));
+		graph.addModule(path(module));
+		graph.setDependencies(path(module), moduleDependencies);
+	}
+
+	private static void assertBefore(List<Path> order, String first, String second) {
+		assertTrue(first+" must come before "+second, order.indexOf(path(first)) < order.indexOf(path(second)));
+	}
+
+	@Test
+	public void ordersDependenciesBeforeDependents() {
+		DependencyGraph graph = new DependencyGraph(path("main"));
+		depends(graph, "main", "app", "util");
+		depends(graph, "app", "view", "util");
+		depends(graph, "view", "util");
+		List<Path> order = graph.topologicalOrder();
+		assertEquals(4, order.size());
+		assertBefore(order, "util", "view");
+		assertBefore(order, "view", "app");
+		assertBefore(order, "app", "main");
+		assertEquals(path("main"), order.get(3));
+		assertTrue(graph.cycles().isEmpty());
+	}
+
+	@Test
+	public void findsCycles() {
+		DependencyGraph graph = new DependencyGraph(path("main"));
+		depends(graph, "main", "a", "self");
+		depends(graph, "a", "b");
+		depends(graph, "b", "c");
+		depends(graph, "c", "a");
+		depends(graph, "self", "self");
+		List<List<Path>> cycles = graph.cycles();
+		assertEquals(2, cycles.size());
+		assertEquals(asList(path("a"), path("b"), path("c")), cycles.get(0));
+		assertEquals(singletonList(path("self")), cycles.get(1));
+		assertEquals(5, graph.topologicalOrder().size());
+	}
+
+	@Test
+	public void tracksDependentsAcrossUpdates() {
+		DependencyGraph graph = new DependencyGraph(path("main"));
+		depends(graph, "main", "a");
+		depends(graph, "a", "b");
+		assertEquals(asList(path("a"), path("main")), asList(graph.transitiveDependents(path("b")).toArray()));
+		depends(graph, "a");
+		assertTrue(graph.dependents(path("b")).isEmpty());
+		DependencyGraph snapshot = graph.snapshot();
+		depends(graph, "a", "b");
+		assertTrue(snapshot.dependents(path("b")).isEmpty());
+		assertEquals(singletonList(path("a")), asList(graph.dependents(path("b")).toArray()));
+	}
+}
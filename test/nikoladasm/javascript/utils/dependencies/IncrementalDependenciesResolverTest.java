@@ -0,0 +1,92 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils.dependencies;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncrementalDependenciesResolverTest {
+
+	private Path directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("js-utils-incremental").toRealPath();
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private Path write(String name, String source) throws IOException {
+		return Files.write(directory.resolve(name), source.getBytes(UTF_8));
+	}
+
+	private static ES2015ModuleImportResolver resolver() {
+		return new ES2015ModuleImportResolver(path -> new String(Files.readAllBytes(path), UTF_8));
+	}
+
+	@Test
+	public void leavesResolverUnchanged() throws Exception {
+		Path main = write("main.js", "import x from './x';");
+		write("x.js", "export default 1;");
+		ES2015ModuleImportResolver resolver = resolver();
+		new IncrementalDependenciesResolver(resolver, main).resolve();
+		assertNull(resolver.moduleSpecifiersCache());
+		assertNull(resolver.pathResolutionCache());
+	}
+
+	@Test
+	public void picksUpChangedModules() throws Exception {
+		Path main = write("main.js", "import x from './x';");
+		write("x.js", "export default 1;");
+		write("y.js", "export default 2;");
+		IncrementalDependenciesResolver incremental = new IncrementalDependenciesResolver(resolver(), main);
+		assertEquals(2, incremental.resolve().size());
+		write("main.js", "import x from './x';\nimport y from './y';");
+		DependencyGraph graph = incremental.resolve();
+		assertEquals(3, graph.size());
+		assertEquals(directory.resolve("y.js"), graph.dependencies(main).get("./y"));
+	}
+
+	@Test
+	public void reresolvesShadowedImports() throws Exception {
+		Path main = write("main.js", "import x from './x';");
+		write("x.jsx", "export default 1;");
+		IncrementalDependenciesResolver incremental = new IncrementalDependenciesResolver(resolver(), main);
+		assertEquals(directory.resolve("x.jsx"), incremental.resolve().dependencies(main).get("./x"));
+		write("x.js", "export default 2;");
+		DependencyGraph graph = incremental.resolve();
+		assertEquals(directory.resolve("x.js"), graph.dependencies(main).get("./x"));
+		assertFalse(graph.contains(directory.resolve("x.jsx")));
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils.dependencies;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class ModuleSpecifierScannerTest {
+
+	private static final Path CORPUS = Paths.get("bench", "resources", "corpus");
+
+	private static final String[] REQUIRE_SOURCES = {
+		"var a = require('./a');\nvar b = require(\"./b\");",
+		"(function (root, factory) {\n" +
+		"\tif (typeof exports === 'object') module.exports = factory(require('jquery'));\n" +
+		"\telse root.x = factory(root.jQuery);\n" +
+		"}(this, function ($) { return $; }));",
+		"function factory() { return require('./inner'); }\nmodule.exports = require('./outer');",
+		"class View { render() { return require('./template'); } }",
+		"var load = () => require('./lazy');\nvar b = require('./b');",
+		"var load = () => { return require('./block'); };",
+		"var s = `${require('./template')}`;",
+		"var o = { a: function () { return require('./a'); }, [require('./key')]: 1 };",
+		"function f(a = require('./default')) {}",
+		"(function (a = require('./default')) {})();",
+		"require('./target').value = 1;",
+		"x += require('./compound');",
+		"if (a) { require('./if'); } else { require('./else'); }",
+		"var x = new require('./new');",
+		"require(('./parenthesized'));",
+		"var m = require('./m').create({ a: require('./a') }, [require('./b')]);",
+		"for (var k in require('./object')) {}\nswitch (x) { case 1: require('./case'); }",
+		"obj.require('./member');\nrequire('./a', './b');\nvar r = require;",
+		"cache[require('./key')] = 1;",
+		"var o = { a: 1, [require('./key')]: 2 };",
+		"var list = [1, [require('./nested')], { a: [require('./deep')] }];"
+	};
+
+	private static final String[] IMPORT_SOURCES = {
+		"import a from './a';\nimport { b, c as d } from './b';\nimport './side';",
+		"import * as ns from './ns';\nexport { x } from './x';\nexport * from './all';\nimport e from './e';",
+		"export default function () {}\nimport f from './f';"
+	};
+
+	private static List<String> parsedRequires(String source) {
+		try {
+			return new CJSDependenciesResolver(null).moduleSpecifiers(source);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static List<String> parsedImports(String source) {
+		try {
+			return new ES2015ModuleImportResolver(null).moduleSpecifiers(source);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static void assertRequireParity(String name, String source) {
+		List<String> scanned = ModuleSpecifierScanner.scanRequires(source);
+		List<String> parsed = parsedRequires(source);
+		if (scanned != null && parsed != null) assertEquals(name, parsed, scanned);
+	}
+
+	private static void assertImportParity(String name, String source) {
+		List<String> scanned = ModuleSpecifierScanner.scanImports(source);
+		List<String> parsed = parsedImports(source);
+		if (scanned != null && parsed != null) assertEquals(name, parsed, scanned);
+	}
+
+	@Test
+	public void scannedRequiresMatchParsedRequires() {
+		for (String source : REQUIRE_SOURCES)
+			assertRequireParity(source, source);
+	}
+
+	@Test
+	public void scannedImportsMatchParsedImports() {
+		for (String source : IMPORT_SOURCES)
+			assertImportParity(source, source);
+	}
+
+	@Test
+	public void corpusScansMatchParses() throws IOException {
+		List<Path> files;
+		try (Stream<Path> paths = Files.list(CORPUS)) {
+			files = paths.sorted().collect(Collectors.toList());
+		}
+		assertFalse(files.isEmpty());
+		for (Path file : files) {
+			String source = new String(Files.readAllBytes(file), UTF_8);
+			assertRequireParity(file.toString(), source);
+			assertImportParity(file.toString(), source);
+		}
+	}
+
+	@Test
+	public void scansWalkedRequires() {
+		assertEquals(asList("./a", "./b"), ModuleSpecifierScanner.scanRequires(REQUIRE_SOURCES[0]));
+		assertEquals(asList("jquery"), ModuleSpecifierScanner.scanRequires(REQUIRE_SOURCES[1]));
+		assertEquals(asList("./if", "./else"), ModuleSpecifierScanner.scanRequires(REQUIRE_SOURCES[12]));
+		assertEquals(asList("./m", "./a", "./b"), ModuleSpecifierScanner.scanRequires(REQUIRE_SOURCES[15]));
+		assertEquals(asList("./nested", "./deep"), ModuleSpecifierScanner.scanRequires(REQUIRE_SOURCES[20]));
+	}
+
+	@Test
+	public void fallsBackOnUnwalkedRequires() {
+		for (int i : new int[]{2, 3, 4, 6, 7, 8, 9, 10, 11, 13, 14, 18, 19})
+			assertNull(REQUIRE_SOURCES[i], ModuleSpecifierScanner.scanRequires(REQUIRE_SOURCES[i]));
+	}
+
+	@Test
+	public void reportsEveryRequireCall() {
+		List<ModuleSpecifierScanner.RequireCall> calls =
+			ModuleSpecifierScanner.scanRequireCalls(REQUIRE_SOURCES[2]);
+		assertEquals(2, calls.size());
+		assertEquals("./inner", calls.get(0).moduleSpecifier);
+		String source = REQUIRE_SOURCES[2];
+		assertEquals("require('./outer')", source.substring(calls.get(1).start, calls.get(1).end));
+	}
+
+	@Test
+	public void skipsNamespaceImportsAndReExports() {
+		assertEquals(asList("./a", "./b", "./side"), ModuleSpecifierScanner.scanImports(IMPORT_SOURCES[0]));
+		assertEquals(asList("./e"), ModuleSpecifierScanner.scanImports(IMPORT_SOURCES[1]));
+	}
+
+	@Test
+	public void scansModuleRequestsLikeReExportsParse() throws Exception {
+		ES2015ModuleImportResolver resolver = new ES2015ModuleImportResolver(null).reExports(true);
+		assertEquals(asList("./ns", "./x", "./all", "./e"), ModuleSpecifierScanner.scanModuleRequests(IMPORT_SOURCES[1]));
+		for (String source : IMPORT_SOURCES)
+			assertEquals(source, resolver.moduleSpecifiers(source), ModuleSpecifierScanner.scanModuleRequests(source));
+	}
+}
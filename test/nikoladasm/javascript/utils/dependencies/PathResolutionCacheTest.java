@@ -0,0 +1,102 @@
+/*
+ *  JavaScript Utils
+ *  Copyright (C) 2016  Nikolay Platov
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nikoladasm.javascript.utils.dependencies;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nikoladasm.javascript.utils.MetricsListener;
+
+public class PathResolutionCacheTest {
+
+	private static final String[] EXTENSIONS = {".js", ".jsx"};
+
+	private Path directory;
+	private final List<Path> probed = new ArrayList<>();
+	private final MetricsListener listener = new MetricsListener() {
+		@Override
+		public void fileProbed(Path path) {
+			probed.add(path);
+		}
+	};
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("js-utils-paths").toRealPath();
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private Path write(String name) throws IOException {
+		return Files.write(directory.resolve(name), "".getBytes(UTF_8));
+	}
+
+	@Test
+	public void skipsDirectoriesAndTriesExtensions() throws IOException {
+		Files.createDirectory(directory.resolve("lib"));
+		Path lib = write("lib.js");
+		PathResolutionCache cache = new PathResolutionCache();
+		assertEquals(lib, cache.resolve(directory.resolve("lib"), EXTENSIONS));
+		assertEquals(lib, cache.resolve(directory.resolve("lib.js"), EXTENSIONS));
+		assertNull(cache.resolve(directory.resolve("missing"), EXTENSIONS));
+	}
+
+	@Test
+	public void statsListedCandidatesOnce() throws IOException {
+		Files.createDirectory(directory.resolve("lib"));
+		Path lib = write("lib.js");
+		PathResolutionCache cache = new PathResolutionCache();
+		cache.resolve(directory.resolve("lib"), EXTENSIONS, listener);
+		cache.resolve(directory.resolve("missing"), EXTENSIONS, listener);
+		cache.resolve(directory.resolve("missing"), EXTENSIONS, listener);
+		cache.resolve(directory.resolve("./lib.js").normalize(), EXTENSIONS, listener);
+		assertEquals(1, cache.directoryListings());
+		assertEquals(3, probed.size());
+		assertEquals(directory, probed.get(0));
+		assertTrue(probed.contains(directory.resolve("lib")));
+		assertTrue(probed.contains(lib));
+	}
+
+	@Test
+	public void keepsMissesUntilInvalidated() throws IOException {
+		PathResolutionCache cache = new PathResolutionCache();
+		assertNull(cache.resolve(directory.resolve("late"), EXTENSIONS));
+		Path late = write("late.js");
+		assertNull(cache.resolve(directory.resolve("late"), EXTENSIONS));
+		cache.invalidate(late);
+		assertEquals(late, cache.resolve(directory.resolve("late"), EXTENSIONS));
+	}
+}